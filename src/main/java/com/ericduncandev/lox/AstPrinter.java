@@ -1,5 +1,8 @@
 package com.ericduncandev.lox;
 
+import java.util.ArrayList;
+import java.util.List;
+
 class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     String print(Expr expr) {
         return expr.accept(this);
@@ -11,10 +14,10 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     @Override
     public String visitBlockStmt(Stmt.Block stmt) {
         StringBuilder builder = new StringBuilder();
-        builder.append("(block ");
+        builder.append("(block");
 
         for (Stmt statement : stmt.statements) {
-            builder.append(statement.accept(this));
+            builder.append(" ").append(statement.accept(this));
         }
 
         builder.append(")");
@@ -26,6 +29,23 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return "break";
     }
 
+    @Override
+    public String visitClassStmt(Stmt.Class stmt) {
+        StringBuilder builder = new StringBuilder();
+        builder.append("(class " + stmt.name.lexeme);
+
+        for (Stmt.Function method : stmt.methods) {
+            builder.append(" " + print(method));
+        }
+
+        for (Stmt.Function method : stmt.classMethods) {
+            builder.append(" (class-method " + print(method) + ")");
+        }
+
+        builder.append(")");
+        return builder.toString();
+    }
+
     @Override
     public String visitExpressionStmt(Stmt.Expression stmt) {
         return parenthesize(";", stmt.expression);
@@ -34,17 +54,19 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
     @Override
     public String visitFunctionStmt(Stmt.Function stmt) {
         StringBuilder builder = new StringBuilder();
-        builder.append("(fun " + stmt.name.lexeme + "(");
+        builder.append("(fun " + stmt.name.lexeme);
 
-        for (Token param : stmt.params) {
-            if (param != stmt.params.get(0)) builder.append(" ");
-            builder.append(param.lexeme);
+        if (stmt.params != null) {
+            builder.append("(");
+            for (Token param : stmt.params) {
+                if (param != stmt.params.get(0)) builder.append(" ");
+                builder.append(param.lexeme);
+            }
+            builder.append(")");
         }
 
-        builder.append(") ");
-
         for (Stmt body : stmt.body) {
-            builder.append(body.accept(this));
+            builder.append(" ").append(body.accept(this));
         }
 
         builder.append(")");
@@ -66,6 +88,16 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return parenthesize("print", stmt.expression);
     }
 
+    @Override
+    public String visitImportStmt(Stmt.Import stmt) {
+        return parenthesize2("import", stmt.path.lexeme);
+    }
+
+    @Override
+    public String visitExportStmt(Stmt.Export stmt) {
+        return parenthesize2("export", stmt.declaration);
+    }
+
     @Override
     public String visitReturnStmt(Stmt.Return stmt) {
         if (stmt.value == null) return "(return)";
@@ -98,7 +130,25 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 
     @Override
     public String visitCallExpr(Expr.Call expr) {
-        return parenthesize2("call", expr.callee, expr.arguments);
+        List<Object> parts = new ArrayList<>();
+        parts.add(expr.callee);
+        parts.addAll(expr.arguments);
+        return parenthesize2("call", parts.toArray());
+    }
+
+    @Override
+    public String visitGetExpr(Expr.Get expr) {
+        return parenthesize2(".", expr.object, expr.name.lexeme);
+    }
+
+    @Override
+    public String visitArrayExpr(Expr.Array expr) {
+        return parenthesize2("array", expr.elements.toArray());
+    }
+
+    @Override
+    public String visitArrayAccessExpr(Expr.ArrayAccess expr) {
+        return parenthesize("[]", expr.array, expr.index);
     }
 
     @Override
@@ -117,6 +167,16 @@ class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
         return parenthesize(expr.operator.lexeme, expr.left, expr.right);
     }
 
+    @Override
+    public String visitSetExpr(Expr.Set expr) {
+        return parenthesize2("=", expr.object, expr.name.lexeme, expr.value);
+    }
+
+    @Override
+    public String visitThisExpr(Expr.This expr) {
+        return "this";
+    }
+
     @Override
     public String visitUnaryExpr(Expr.Unary expr) {
         return parenthesize(expr.operator.lexeme, expr.right);
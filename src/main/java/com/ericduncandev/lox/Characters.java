@@ -0,0 +1,22 @@
+package com.ericduncandev.lox;
+
+// One-character strings, as indexing into a string returns. The Latin-1
+// ones are made once up front, so looping over the characters of most
+// strings allocates nothing.
+final class Characters {
+    private static final String[] LATIN_1 = new String[256];
+
+    static {
+        for (char c = 0; c < LATIN_1.length; c++) {
+            LATIN_1[c] = String.valueOf(c);
+        }
+    }
+
+    private Characters() {
+    }
+
+    static String of(char c) {
+        if (c < LATIN_1.length) return LATIN_1[c];
+        return String.valueOf(c);
+    }
+}
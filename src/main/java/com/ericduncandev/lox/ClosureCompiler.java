@@ -0,0 +1,922 @@
+package com.ericduncandev.lox;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Turns a resolved program into a tree of Java closures, selected with
+// --engine=closure. Everything the tree-walker decides on each visit is
+// decided once here instead: which operator a Binary node applies, the
+// depth and slot a variable lives at, and whether it is a global. The
+// closures share the Interpreter's runtime (environments, functions,
+// classes, globals and natives), so both engines can be compared on the
+// same scripts.
+//
+// The tree-walker also uses one to compile its hot functions (see
+// Tiering). Code compiled for a tier trusts the operand types the
+// tree-walker has seen, behind guards that deoptimize the function.
+class ClosureCompiler implements Expr.Visitor<ClosureCompiler.ExprNode>,
+        Stmt.Visitor<ClosureCompiler.StmtNode> {
+
+    interface ExprNode {
+        Object evaluate(Environment environment);
+    }
+
+    interface StmtNode {
+        Completion execute(Environment environment);
+    }
+
+    // Stores the value of a declaration where the Resolver put it.
+    private interface Definition {
+        void define(Environment environment, Object value);
+    }
+
+    private final Interpreter interpreter;
+    private final Environment globals;
+    // Null unless compiling for the tree-walker's second tier.
+    private final Tiering tiering;
+    // The function being compiled for the tier.
+    private Stmt.Function tieredFunction = null;
+    // The function whose body is being compiled, to charge loops to.
+    private Stmt.Function enclosingFunction = null;
+
+    ClosureCompiler(Interpreter interpreter) {
+        this(interpreter, null);
+    }
+
+    ClosureCompiler(Interpreter interpreter, Tiering tiering) {
+        this.interpreter = interpreter;
+        this.globals = interpreter.globals;
+        this.tiering = tiering;
+    }
+
+    StmtNode compileBody(Stmt.Function function) {
+        tieredFunction = function;
+        try {
+            return body(function);
+        } finally {
+            tieredFunction = null;
+        }
+    }
+
+    StmtNode compileLoop(Stmt.Function function, Stmt.While loop) {
+        tieredFunction = function;
+        enclosingFunction = function;
+        try {
+            return compile(loop);
+        } finally {
+            tieredFunction = null;
+            enclosingFunction = null;
+        }
+    }
+
+    StmtNode compile(List<Stmt> statements) {
+        return sequence(statements);
+    }
+
+    ExprNode compile(Expr expression) {
+        return expression.accept(this);
+    }
+
+    private StmtNode compile(Stmt statement) {
+        return statement.accept(this);
+    }
+
+    private StmtNode sequence(List<Stmt> statements) {
+        StmtNode[] nodes = new StmtNode[statements.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(statements.get(i));
+        }
+
+        if (nodes.length == 1) return nodes[0];
+        return environment -> {
+            for (StmtNode node : nodes) {
+                Completion completion = node.execute(environment);
+                if (completion != Completion.NORMAL) return completion;
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitBlockStmt(Stmt.Block stmt) {
+        StmtNode body = sequence(stmt.statements);
+        StmtNode scoped = stmt.locals == 0 ? body : environment -> {
+            Environment scope = interpreter.enterScope(stmt, environment);
+            Completion completion = body.execute(scope);
+            interpreter.leaveScope(stmt, scope);
+            return completion;
+        };
+        if (stmt.frameSize == 0) return scoped;
+
+        // A block around top-level code, which has no frame of its own.
+        int frameSize = stmt.frameSize;
+        return environment -> {
+            int callerBase = interpreter.base;
+            interpreter.base = interpreter.push(frameSize);
+            try {
+                return scoped.execute(environment);
+            } finally {
+                interpreter.pop(callerBase);
+            }
+        };
+    }
+
+    @Override
+    public StmtNode visitBreakStmt(Stmt.Break stmt) {
+        return environment -> Completion.BREAK;
+    }
+
+    @Override
+    public StmtNode visitClassStmt(Stmt.Class stmt) {
+        String name = stmt.name.lexeme;
+        Definition definition = definition(stmt.name, stmt.isGlobal, stmt.captured, stmt.slot);
+        Map<String, StmtNode> classMethodBodies = compileBodies(stmt.classMethods);
+        Map<String, StmtNode> methodBodies = compileBodies(stmt.methods);
+
+        return environment -> {
+            Map<String, LoxFunction> classMethods = new HashMap<>();
+            for (Stmt.Function method : stmt.classMethods) {
+                classMethods.put(method.name.lexeme, new LoxFunction(method, environment,
+                        false, null, classMethodBodies.get(method.name.lexeme)));
+            }
+
+            LoxClass metaclass = new LoxClass(null, name + " metaclass", classMethods);
+
+            Map<String, LoxFunction> methods = new HashMap<>();
+            for (Stmt.Function method : stmt.methods) {
+                methods.put(method.name.lexeme, new LoxFunction(method, environment,
+                        method.name.lexeme.equals("init"), null,
+                        methodBodies.get(method.name.lexeme)));
+            }
+
+            definition.define(environment, new LoxClass(metaclass, name, methods));
+            return Completion.NORMAL;
+        };
+    }
+
+    private Map<String, StmtNode> compileBodies(List<Stmt.Function> functions) {
+        Map<String, StmtNode> bodies = new HashMap<>();
+        // A tier leaves each function to be compiled when it gets hot.
+        if (tiering != null) return bodies;
+        for (Stmt.Function function : functions) {
+            bodies.put(function.name.lexeme, body(function));
+        }
+        return bodies;
+    }
+
+    private StmtNode body(Stmt.Function function) {
+        Stmt.Function enclosing = enclosingFunction;
+        enclosingFunction = function;
+        try {
+            return sequence(function.body);
+        } finally {
+            enclosingFunction = enclosing;
+        }
+    }
+
+    @Override
+    public StmtNode visitExpressionStmt(Stmt.Expression stmt) {
+        ExprNode expression = compile(stmt.expression);
+        return environment -> {
+            expression.evaluate(environment);
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitFunctionStmt(Stmt.Function stmt) {
+        Definition definition = definition(stmt.name, stmt.isGlobal, stmt.captured, stmt.slot);
+        StmtNode body = tiering == null ? body(stmt) : null;
+        return environment -> {
+            definition.define(environment,
+                    new LoxFunction(stmt, environment, false, null, body));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitIfStmt(Stmt.If stmt) {
+        ExprNode condition = compile(stmt.condition);
+        StmtNode thenBranch = compile(stmt.thenBranch);
+        if (stmt.elseBranch == null) {
+            return environment -> {
+                if (interpreter.isTruthy(condition.evaluate(environment))) {
+                    return thenBranch.execute(environment);
+                }
+                return Completion.NORMAL;
+            };
+        }
+
+        StmtNode elseBranch = compile(stmt.elseBranch);
+        return environment -> {
+            if (interpreter.isTruthy(condition.evaluate(environment))) {
+                return thenBranch.execute(environment);
+            }
+            return elseBranch.execute(environment);
+        };
+    }
+
+    @Override
+    public StmtNode visitPrintStmt(Stmt.Print stmt) {
+        ExprNode expression = compile(stmt.expression);
+        OutputSink output = interpreter.output;
+        return environment -> {
+            output.println(interpreter.stringify(expression.evaluate(environment)));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitImportStmt(Stmt.Import stmt) {
+        // Loading a module goes back through Interpreter.interpret(), which
+        // compiles it with this compiler as well.
+        return environment -> interpreter.visitImportStmt(stmt);
+    }
+
+    @Override
+    public StmtNode visitExportStmt(Stmt.Export stmt) {
+        StmtNode declaration = compile(stmt.declaration);
+        Token name = null;
+        if (stmt.declaration instanceof Stmt.Var) {
+            name = ((Stmt.Var) stmt.declaration).name;
+        } else if (stmt.declaration instanceof Stmt.Function) {
+            name = ((Stmt.Function) stmt.declaration).name;
+        }
+
+        if (name == null) return declaration;
+        Token exported = name;
+        return environment -> {
+            declaration.execute(environment);
+            environment.define(exported.lexeme, environment.get(exported));
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public StmtNode visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) {
+            return environment -> {
+                interpreter.returnValue = null;
+                return Completion.RETURN;
+            };
+        }
+
+        ExprNode value = compile(stmt.value);
+        return environment -> {
+            interpreter.returnValue = value.evaluate(environment);
+            return Completion.RETURN;
+        };
+    }
+
+    @Override
+    public StmtNode visitVarStmt(Stmt.Var stmt) {
+        Definition definition = traced(stmt.name,
+                definition(stmt.name, stmt.isGlobal, stmt.captured, stmt.slot));
+        if (stmt.initializer == null) {
+            return environment -> {
+                definition.define(environment, Interpreter.uninitialized);
+                return Completion.NORMAL;
+            };
+        }
+
+        ExprNode initializer = compile(stmt.initializer);
+        return environment -> {
+            definition.define(environment, initializer.evaluate(environment));
+            return Completion.NORMAL;
+        };
+    }
+
+    // Reports what 'var' defines, as the tree-walker does.
+    private Definition traced(Token name, Definition definition) {
+        ExecutionListener listener = interpreter.listener;
+        if (listener == null) return definition;
+
+        return (environment, value) -> {
+            listener.onVariableWrite(name, value);
+            definition.define(environment, value);
+        };
+    }
+
+    private Definition definition(Token name, boolean isGlobal, boolean captured, int slot) {
+        if (isGlobal) {
+            String lexeme = name.lexeme;
+            return (environment, value) -> environment.define(lexeme, value);
+        }
+        if (captured) return (environment, value) -> environment.setSlot(slot, value);
+        return (environment, value) -> interpreter.stack[interpreter.base + slot] = value;
+    }
+
+    @Override
+    public StmtNode visitWhileStmt(Stmt.While stmt) {
+        ExprNode condition = compile(stmt.condition);
+        StmtNode body = compile(stmt.body);
+        if (enclosingFunction == null || (tiering == null && !interpreter.profiling)) {
+            return environment -> {
+                while (interpreter.isTruthy(condition.evaluate(environment))) {
+                    Completion completion = body.execute(environment);
+                    if (completion == Completion.BREAK) break;
+                    if (completion == Completion.RETURN) return completion;
+                }
+                return Completion.NORMAL;
+            };
+        }
+
+        FunctionProfile profile = FunctionProfile.of(enclosingFunction);
+        return environment -> {
+            while (interpreter.isTruthy(condition.evaluate(environment))) {
+                Completion completion = body.execute(environment);
+                if (completion == Completion.BREAK) break;
+                if (completion == Completion.RETURN) return completion;
+                profile.backEdges++;
+            }
+            return Completion.NORMAL;
+        };
+    }
+
+    @Override
+    public ExprNode visitAssignExpr(Expr.Assign expr) {
+        ExprNode assignment = assignment(expr);
+        ExecutionListener listener = interpreter.listener;
+        if (listener == null) return assignment;
+
+        Token name = expr.name;
+        return environment -> {
+            Object result = assignment.evaluate(environment);
+            listener.onVariableWrite(name, result);
+            return result;
+        };
+    }
+
+    private ExprNode assignment(Expr.Assign expr) {
+        ExprNode value = compile(expr.value);
+        if (expr.isGlobal) {
+            Token name = expr.name;
+            int slot = expr.slot;
+            return environment -> {
+                Object result = value.evaluate(environment);
+                globals.assignGlobal(slot, name, result);
+                return result;
+            };
+        }
+
+        int depth = expr.depth;
+        int slot = expr.slot;
+        if (!expr.captured) {
+            return environment -> {
+                Object result = value.evaluate(environment);
+                interpreter.stack[interpreter.base + slot] = result;
+                return result;
+            };
+        }
+
+        switch (depth) {
+            case 0:
+                return environment -> {
+                    Object result = value.evaluate(environment);
+                    environment.setSlot(slot, result);
+                    return result;
+                };
+            case 1:
+                return environment -> {
+                    Object result = value.evaluate(environment);
+                    environment.enclosing.setSlot(slot, result);
+                    return result;
+                };
+            default:
+                return environment -> {
+                    Object result = value.evaluate(environment);
+                    environment.assignAt(depth, slot, result);
+                    return result;
+                };
+        }
+    }
+
+    @Override
+    public ExprNode visitBinaryExpr(Expr.Binary expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+
+        if (tieredFunction != null) {
+            ExprNode specialized = specialized(expr, left, right);
+            if (specialized != null) return specialized;
+        }
+
+        switch (operator.type) {
+            case GREATER:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double) a > (double) b;
+                };
+            case GREATER_EQUAL:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double) a >= (double) b;
+                };
+            case LESS:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double) a < (double) b;
+                };
+            case LESS_EQUAL:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double) a <= (double) b;
+                };
+            case BANG_EQUAL:
+                return environment -> !interpreter.isEqual(
+                        left.evaluate(environment), right.evaluate(environment));
+            case EQUAL_EQUAL:
+                return environment -> interpreter.isEqual(
+                        left.evaluate(environment), right.evaluate(environment));
+            case MINUS:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double) a - (double) b;
+                };
+            case PLUS:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    if (a instanceof Double && b instanceof Double) {
+                        return (double) a + (double) b;
+                    }
+                    if (Rope.isString(a) || Rope.isString(b)) {
+                        return interpreter.concatenate(a, b);
+                    }
+                    throw new RuntimeError(operator,
+                            "Operands must be two numbers or two strings.");
+                };
+            case SLASH:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    interpreter.checkNumberOperands(operator, a, b);
+                    if ((double) b == 0) {
+                        throw new RuntimeError(operator,
+                                "Attempted to divide by zero, which is not allowed.");
+                    }
+                    return (double) a / (double) b;
+                };
+            case STAR:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double) a * (double) b;
+                };
+            case PERCENT:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double) a % (double) b;
+                };
+            case BAR:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double) ((int) (double) a | (int) (double) b);
+                };
+            case XOR:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    interpreter.checkNumberOperands(operator, a, b);
+                    return (double) ((int) (double) a ^ (int) (double) b);
+                };
+            default:
+                // The comma operator: both sides run, the result is nil.
+                return environment -> {
+                    left.evaluate(environment);
+                    right.evaluate(environment);
+                    return null;
+                };
+        }
+    }
+
+    // '+' is the one operator whose meaning depends on its operand types,
+    // so it is the one worth compiling for the types seen so far. The
+    // others already assume numbers and report an error otherwise.
+    private ExprNode specialized(Expr.Binary expr, ExprNode left, ExprNode right) {
+        Token operator = expr.operator;
+        Stmt.Function function = tieredFunction;
+        int generation = function.profile.deoptimizations;
+
+        switch (expr.specialization) {
+            case ADD_NUMBERS:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    if (a instanceof Double && b instanceof Double) {
+                        return (double) a + (double) b;
+                    }
+                    tiering.deoptimize(function, generation, operator,
+                            "'+' expected two numbers");
+                    return interpreter.binary(operator, a, b);
+                };
+            case CONCATENATE_STRINGS:
+                return environment -> {
+                    Object a = left.evaluate(environment);
+                    Object b = right.evaluate(environment);
+                    if (Rope.isString(a) && Rope.isString(b)) {
+                        return Rope.concat((CharSequence) a, (CharSequence) b);
+                    }
+                    tiering.deoptimize(function, generation, operator,
+                            "'+' expected two strings");
+                    return interpreter.binary(operator, a, b);
+                };
+        }
+
+        return null;
+    }
+
+    @Override
+    public ExprNode visitCallExpr(Expr.Call expr) {
+        if (InlinedCall.hasSimpleArguments(expr)) {
+            return inlinable(expr);
+        }
+        if (expr.callee instanceof Expr.Get) {
+            return invoke(expr);
+        }
+
+        ExprNode callee = compile(expr.callee);
+        ExprNode[] arguments = compileAll(expr.arguments);
+        Token paren = expr.paren;
+
+        // One node per argument count, so the arguments go straight to
+        // the callee without a list or array in between.
+        switch (arguments.length) {
+            case 0:
+                return environment -> interpreter.call0(
+                        callee.evaluate(environment), null, paren);
+            case 1: {
+                ExprNode a = arguments[0];
+                return environment -> interpreter.call1(
+                        callee.evaluate(environment), null, paren,
+                        a.evaluate(environment));
+            }
+            case 2: {
+                ExprNode a = arguments[0];
+                ExprNode b = arguments[1];
+                return environment -> interpreter.call2(
+                        callee.evaluate(environment), null, paren,
+                        a.evaluate(environment), b.evaluate(environment));
+            }
+            case 3: {
+                ExprNode a = arguments[0];
+                ExprNode b = arguments[1];
+                ExprNode c = arguments[2];
+                return environment -> interpreter.call3(
+                        callee.evaluate(environment), null, paren,
+                        a.evaluate(environment), b.evaluate(environment),
+                        c.evaluate(environment));
+            }
+            default:
+                return environment -> interpreter.callN(
+                        callee.evaluate(environment), null, paren,
+                        evaluateAll(arguments, environment));
+        }
+    }
+
+    // A call through a property runs a method with its receiver directly,
+    // the same way Interpreter.visitCallExpr() does.
+    private ExprNode invoke(Expr.Call expr) {
+        Expr.Get get = (Expr.Get) expr.callee;
+        ExprNode object = compile(get.object);
+        ExprNode[] arguments = compileAll(expr.arguments);
+        Token name = get.name;
+        Token paren = expr.paren;
+        InlineCache cache = InlineCache.of(expr);
+
+        switch (arguments.length) {
+            case 0:
+                return environment -> {
+                    LoxInstance instance = interpreter.asInstance(object.evaluate(environment), name);
+                    int entry = cache.lookUp(instance);
+                    return interpreter.call0(
+                            interpreter.callee(instance, name, cache, entry),
+                            cache.isInvocable(entry) ? instance : null, paren);
+                };
+            case 1: {
+                ExprNode a = arguments[0];
+                return environment -> {
+                    LoxInstance instance = interpreter.asInstance(object.evaluate(environment), name);
+                    int entry = cache.lookUp(instance);
+                    return interpreter.call1(
+                            interpreter.callee(instance, name, cache, entry),
+                            cache.isInvocable(entry) ? instance : null, paren,
+                            a.evaluate(environment));
+                };
+            }
+            case 2: {
+                ExprNode a = arguments[0];
+                ExprNode b = arguments[1];
+                return environment -> {
+                    LoxInstance instance = interpreter.asInstance(object.evaluate(environment), name);
+                    int entry = cache.lookUp(instance);
+                    return interpreter.call2(
+                            interpreter.callee(instance, name, cache, entry),
+                            cache.isInvocable(entry) ? instance : null, paren,
+                            a.evaluate(environment), b.evaluate(environment));
+                };
+            }
+            case 3: {
+                ExprNode a = arguments[0];
+                ExprNode b = arguments[1];
+                ExprNode c = arguments[2];
+                return environment -> {
+                    LoxInstance instance = interpreter.asInstance(object.evaluate(environment), name);
+                    int entry = cache.lookUp(instance);
+                    return interpreter.call3(
+                            interpreter.callee(instance, name, cache, entry),
+                            cache.isInvocable(entry) ? instance : null, paren,
+                            a.evaluate(environment), b.evaluate(environment),
+                            c.evaluate(environment));
+                };
+            }
+            default:
+                return environment -> {
+                    LoxInstance instance = interpreter.asInstance(object.evaluate(environment), name);
+                    int entry = cache.lookUp(instance);
+                    return interpreter.callN(
+                            interpreter.callee(instance, name, cache, entry),
+                            cache.isInvocable(entry) ? instance : null, paren,
+                            evaluateAll(arguments, environment));
+                };
+        }
+    }
+
+    // A call that may get inlined checks for that once it has the callee,
+    // before the arguments are evaluated, the way Interpreter.visitCallExpr()
+    // does. Its arguments are all simple, so they are evaluated here
+    // rather than in a node per argument count.
+    private ExprNode inlinable(Expr.Call expr) {
+        ExprNode[] arguments = compileAll(expr.arguments);
+        Token paren = expr.paren;
+
+        if (expr.callee instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr.callee;
+            ExprNode object = compile(get.object);
+            Token name = get.name;
+            InlineCache cache = InlineCache.of(expr);
+            return environment -> {
+                LoxInstance instance = interpreter.asInstance(object.evaluate(environment), name);
+                int entry = cache.lookUp(instance);
+                Object callee = interpreter.callee(instance, name, cache, entry);
+                InlinedCall inlined = InlinedCall.at(expr, callee);
+                if (inlined != null) return inlined(inlined).evaluate(environment);
+
+                return call(callee, cache.isInvocable(entry) ? instance : null, paren,
+                        arguments, environment);
+            };
+        }
+
+        ExprNode callee = compile(expr.callee);
+        return environment -> {
+            Object function = callee.evaluate(environment);
+            InlinedCall inlined = InlinedCall.at(expr, function);
+            if (inlined != null) return inlined(inlined).evaluate(environment);
+
+            return call(function, null, paren, arguments, environment);
+        };
+    }
+
+    private ExprNode inlined(InlinedCall inlined) {
+        if (inlined.compiled == null) {
+            // Compiled while running, and possibly shared by several
+            // functions, so it is not tied to any of them.
+            Stmt.Function function = tieredFunction;
+            tieredFunction = null;
+            inlined.compiled = compile(inlined.body);
+            tieredFunction = function;
+        }
+        return inlined.compiled;
+    }
+
+    private Object call(Object callee, LoxInstance receiver, Token paren,
+                        ExprNode[] arguments, Environment environment) {
+        switch (arguments.length) {
+            case 0:
+                return interpreter.call0(callee, receiver, paren);
+            case 1:
+                return interpreter.call1(callee, receiver, paren,
+                        arguments[0].evaluate(environment));
+            case 2:
+                return interpreter.call2(callee, receiver, paren,
+                        arguments[0].evaluate(environment),
+                        arguments[1].evaluate(environment));
+            case 3:
+                return interpreter.call3(callee, receiver, paren,
+                        arguments[0].evaluate(environment),
+                        arguments[1].evaluate(environment),
+                        arguments[2].evaluate(environment));
+            default:
+                return interpreter.callN(callee, receiver, paren,
+                        evaluateAll(arguments, environment));
+        }
+    }
+
+    private static Object[] evaluateAll(ExprNode[] nodes, Environment environment) {
+        Object[] values = new Object[nodes.length];
+        for (int i = 0; i < nodes.length; i++) {
+            values[i] = nodes[i].evaluate(environment);
+        }
+        return values;
+    }
+
+    @Override
+    public ExprNode visitGetExpr(Expr.Get expr) {
+        ExprNode object = compile(expr.object);
+        Token name = expr.name;
+        InlineCache cache = InlineCache.of(expr);
+
+        return environment -> interpreter.getProperty(
+                object.evaluate(environment), name, cache);
+    }
+
+    @Override
+    public ExprNode visitArrayExpr(Expr.Array expr) {
+        ExprNode[] elements = compileAll(expr.elements);
+        ExecutionListener listener = interpreter.listener;
+        if (listener == null) {
+            return environment -> {
+                LoxArray values = new LoxArray(elements.length);
+                for (int i = 0; i < elements.length; i++) {
+                    values.store(i, elements[i].evaluate(environment));
+                }
+                return values;
+            };
+        }
+
+        return environment -> {
+            LoxArray values = new LoxArray(elements.length);
+            for (int i = 0; i < elements.length; i++) {
+                values.store(i, elements[i].evaluate(environment));
+            }
+            listener.onAllocation(values);
+            return values;
+        };
+    }
+
+    @Override
+    public ExprNode visitArrayAccessExpr(Expr.ArrayAccess expr) {
+        ExprNode array = compile(expr.array);
+        ExprNode index = compile(expr.index);
+        Token bracket = expr.bracket;
+        ExecutionListener listener = interpreter.listener;
+        if (listener == null) {
+            return environment -> interpreter.index(bracket,
+                    array.evaluate(environment), index.evaluate(environment));
+        }
+
+        return environment -> {
+            Object target = array.evaluate(environment);
+            Object position = index.evaluate(environment);
+            Object result = interpreter.index(bracket, target, position);
+            listener.onIndex(bracket, target, position, result);
+            return result;
+        };
+    }
+
+    @Override
+    public ExprNode visitGroupingExpr(Expr.Grouping expr) {
+        return compile(expr.expression);
+    }
+
+    @Override
+    public ExprNode visitLiteralExpr(Expr.Literal expr) {
+        Object value = expr.value;
+        return environment -> value;
+    }
+
+    @Override
+    public ExprNode visitLogicalExpr(Expr.Logical expr) {
+        ExprNode left = compile(expr.left);
+        ExprNode right = compile(expr.right);
+
+        if (expr.operator.type == TokenType.OR) {
+            return environment -> {
+                Object value = left.evaluate(environment);
+                if (interpreter.isTruthy(value)) return value;
+                return right.evaluate(environment);
+            };
+        }
+
+        return environment -> {
+            Object value = left.evaluate(environment);
+            if (!interpreter.isTruthy(value)) return value;
+            return right.evaluate(environment);
+        };
+    }
+
+    @Override
+    public ExprNode visitSetExpr(Expr.Set expr) {
+        ExprNode object = compile(expr.object);
+        ExprNode value = compile(expr.value);
+        Token name = expr.name;
+        InlineCache cache = InlineCache.of(expr);
+
+        return environment -> {
+            Object target = object.evaluate(environment);
+            if (!(target instanceof LoxInstance)) {
+                throw new RuntimeError(name, "Only instances have fields.");
+            }
+
+            Object result = value.evaluate(environment);
+            cache.set((LoxInstance) target, result);
+            return result;
+        };
+    }
+
+    @Override
+    public ExprNode visitThisExpr(Expr.This expr) {
+        return variable(expr.keyword, expr.isGlobal, expr.captured, expr.depth, expr.slot);
+    }
+
+    @Override
+    public ExprNode visitUnaryExpr(Expr.Unary expr) {
+        ExprNode right = compile(expr.right);
+        Token operator = expr.operator;
+
+        if (operator.type == TokenType.BANG) {
+            return environment -> !interpreter.isTruthy(right.evaluate(environment));
+        }
+
+        return environment -> {
+            Object value = right.evaluate(environment);
+            interpreter.checkNumberOperand(operator, value);
+            return -(double) value;
+        };
+    }
+
+    @Override
+    public ExprNode visitConditionalExpr(Expr.Conditional expr) {
+        ExprNode condition = compile(expr.expr);
+        ExprNode thenBranch = compile(expr.thenBranch);
+        ExprNode elseBranch = compile(expr.elseBranch);
+
+        return environment -> interpreter.isTruthy(condition.evaluate(environment))
+                ? thenBranch.evaluate(environment)
+                : elseBranch.evaluate(environment);
+    }
+
+    @Override
+    public ExprNode visitVariableExpr(Expr.Variable expr) {
+        return variable(expr.name, expr.isGlobal, expr.captured, expr.depth, expr.slot);
+    }
+
+    private ExprNode variable(Token name, boolean isGlobal, boolean captured,
+                              int depth, int slot) {
+        ExprNode read = read(name, isGlobal, captured, depth, slot);
+        ExecutionListener listener = interpreter.listener;
+        if (listener == null) return read;
+
+        return environment -> {
+            Object value = read.evaluate(environment);
+            listener.onVariableRead(name, value);
+            return value;
+        };
+    }
+
+    private ExprNode read(Token name, boolean isGlobal, boolean captured,
+                          int depth, int slot) {
+        if (isGlobal) {
+            return environment -> globals.getGlobal(slot, name);
+        }
+        if (!captured) {
+            return environment -> interpreter.stack[interpreter.base + slot];
+        }
+
+        switch (depth) {
+            case 0:
+                return environment -> environment.getSlot(slot);
+            case 1:
+                return environment -> environment.enclosing.getSlot(slot);
+            case 2:
+                return environment -> environment.enclosing.enclosing.getSlot(slot);
+            default:
+                return environment -> environment.getAt(depth, slot);
+        }
+    }
+
+    private ExprNode[] compileAll(List<Expr> expressions) {
+        ExprNode[] nodes = new ExprNode[expressions.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = compile(expressions.get(i));
+        }
+        return nodes;
+    }
+}
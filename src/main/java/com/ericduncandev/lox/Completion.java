@@ -0,0 +1,10 @@
+package com.ericduncandev.lox;
+
+// How a statement finished. Executing a statement returns one of these
+// instead of throwing to unwind out of a loop or function; a RETURN
+// leaves its value in Interpreter.returnValue for the call to pick up.
+enum Completion {
+    NORMAL,
+    BREAK,
+    RETURN
+}
@@ -1,31 +1,108 @@
 package com.ericduncandev.lox;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
 class Environment {
-    final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
-    private boolean DEBUG = false;
+    // Marks a global slot that has been handed out for a name the program
+    // refers to but has not defined (yet).
+    private static final Object UNDEFINED = new Object();
 
-    Environment(boolean DEBUG) {
-        this.DEBUG = DEBUG;
+    final Environment enclosing;
+    // Every environment keeps its variables in slots. Locals use the slots
+    // handed out by the Resolver. Globals get theirs from the directory,
+    // which maps each global name seen so far to a slot; only the global
+    // environment has one.
+    private final Map<String, Integer> directory;
+    private Object[] slots;
+    private int count = 0;
+    // Set once a function has been made that keeps this environment, or
+    // one inside it, as its closure. Until then it can be reused.
+    private boolean closedOver = false;
+
+    Environment() {
         enclosing = null;
+        directory = new HashMap<>();
+        slots = new Object[64];
+    }
+
+    Environment(Environment enclosing) {
+        this.enclosing = enclosing;
+        directory = null;
+        slots = new Object[8];
     }
 
-    Environment(Environment enclosing, boolean DEBUG) {
+    // A frame whose first count slots have already been filled in.
+    Environment(Environment enclosing, Object[] slots, int count) {
         this.enclosing = enclosing;
-        this.DEBUG = DEBUG;
+        directory = null;
+        this.slots = slots;
+        this.count = count;
     }
 
     void define(String name, Object value) {
-        if (DEBUG) {
-            System.out.println("Debug: Defining " + name + " with value " + value + " in environment " + this);
+        if (directory != null) {
+            // globalSlot() may grow the table, so index it afterwards.
+            int slot = globalSlot(name);
+            slots[slot] = value;
+            return;
+        }
+
+        // Locals are declared in the same order the Resolver numbered
+        // them, so the next free slot is the one it assigned.
+        if (count == slots.length) {
+            slots = Arrays.copyOf(slots, Math.max(4, count * 2));
         }
-        values.put(name, value);
+        slots[count++] = value;
     }
 
 
+    // The slot of a global, reserving one if the name is new. Called on
+    // the global environment only.
+    int globalSlot(String name) {
+        Integer slot = directory.get(name);
+        if (slot != null) return slot;
+
+        if (count == slots.length) {
+            slots = Arrays.copyOf(slots, count * 2);
+        }
+        slots[count] = UNDEFINED;
+        directory.put(name, count);
+        return count++;
+    }
+
+    // A variable the Resolver never saw keeps slot -1 and fails here
+    // rather than reading some other global.
+    Object getGlobal(int slot, Token name) {
+        Object value = slots[slot];
+        if (value == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        }
+        return value;
+    }
+
+    void assignGlobal(int slot, Token name, Object value) {
+        if (slots[slot] == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+        }
+        slots[slot] = value;
+    }
+
+    // Called with the closure of each function made, marking it and the
+    // environments around it.
+    void closeOver() {
+        for (Environment environment = this;
+             environment != null && !environment.closedOver;
+             environment = environment.enclosing) {
+            environment.closedOver = true;
+        }
+    }
+
+    boolean isClosedOver() {
+        return closedOver;
+    }
+
     Environment ancestor(int distance) {
         Environment environment = this;
         for (int i = 0; i < distance; i++) {
@@ -35,41 +112,50 @@ class Environment {
         return environment;
     }
 
-    Object getAt(int distance, String name) {
-        return ancestor(distance).values.get(name);
+    Object getSlot(int slot) {
+        return slots[slot];
+    }
+
+    void setSlot(int slot, Object value) {
+        slots[slot] = value;
     }
 
-    void assignAt(int distance, Token name, Object value) {
-        ancestor(distance).values.put(name.lexeme, value);
+    Object getAt(int distance, int slot) {
+        return ancestor(distance).slots[slot];
+    }
+
+    void assignAt(int distance, int slot, Object value) {
+        ancestor(distance).slots[slot] = value;
     }
 
     Object get(Token name) {
-        if (values.containsKey(name.lexeme)) {
-            if (DEBUG) {
-                System.out.println("Debug: Found " + name.lexeme + " in environment " + this);
-            }
-            return values.get(name.lexeme);
+        if (directory != null && isDefined(name.lexeme)) {
+            return slots[directory.get(name.lexeme)];
         }
 
-        if (enclosing != null) {
-            if (DEBUG) {
-                System.out.println("Debug: Looking for " + name.lexeme + " in enclosing environment " + enclosing);
-            }
-            return enclosing.get(name);
-        }
-        if (DEBUG) {
-            System.out.println("Debug: Variable " + name.lexeme + " not found in any environment");
-        }
+        if (enclosing != null) return enclosing.get(name);
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
     public Map<String, Object> getValues() {
-        return new HashMap<>(values);
+        // Local environments carry no names, so they have nothing to list.
+        Map<String, Object> values = new HashMap<>();
+        if (directory == null) return values;
+        for (Map.Entry<String, Integer> entry : directory.entrySet()) {
+            Object value = slots[entry.getValue()];
+            if (value != UNDEFINED) values.put(entry.getKey(), value);
+        }
+        return values;
+    }
+
+    private boolean isDefined(String name) {
+        Integer slot = directory.get(name);
+        return slot != null && slots[slot] != UNDEFINED;
     }
 
     void assign(Token name, Object value) {
-        if (values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
+        if (directory != null && isDefined(name.lexeme)) {
+            slots[directory.get(name.lexeme)] = value;
             return;
         }
 
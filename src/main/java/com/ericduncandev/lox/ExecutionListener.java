@@ -0,0 +1,31 @@
+package com.ericduncandev.lox;
+
+// Watches a program run, for tracing and tooling. The Interpreter holds
+// at most one listener, and every hook is behind a check that there is
+// one. With none attached that branch is never taken, so HotSpot compiles
+// it down to an uncommon trap and the hooks cost nothing. The tree-walker
+// and the closure engine report the same events; the VM reports none.
+//
+// Hooks are called on the interpreter's thread, in the middle of running
+// the program, and should not throw.
+interface ExecutionListener {
+    // A function is about to run its body. Its arguments are in stack
+    // from first on.
+    default void onCall(LoxFunction function, Object[] stack, int first) {}
+
+    default void onReturn(LoxFunction function, Object value) {}
+
+    // A variable, or "this", was read.
+    default void onVariableRead(Token name, Object value) {}
+
+    // A variable was defined by 'var' or assigned to.
+    default void onVariableWrite(Token name, Object value) {}
+
+    // An array or a string was indexed, giving result.
+    default void onIndex(Token bracket, Object target, Object index, Object result) {}
+
+    // An array or an instance was created.
+    default void onAllocation(Object value) {}
+
+    default void onModuleLoad(String path) {}
+}
@@ -2,8 +2,8 @@ package com.ericduncandev.lox;
 
 import java.util.List;
 
-abstract class Expr {
-  interface Visitor<R> {
+public abstract class Expr {
+  public interface Visitor<R> {
     R visitAssignExpr(Assign expr);
     R visitBinaryExpr(Binary expr);
     R visitCallExpr(Call expr);
@@ -19,21 +19,26 @@ abstract class Expr {
     R visitConditionalExpr(Conditional expr);
     R visitVariableExpr(Variable expr);
   }
-  static class Assign extends Expr {
+  public static class Assign extends Expr {
     Assign(Token name, Expr value) {
       this.name = name;
       this.value = value;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitAssignExpr(this);
     }
 
-    final Token name;
-    final Expr value;
+    public final Token name;
+    public final Expr value;
+
+    int depth;
+    int slot = -1;
+    boolean isGlobal = true;
+    boolean captured;
   }
-  static class Binary extends Expr {
+  public static class Binary extends Expr {
     Binary(Expr left, Token operator, Expr right) {
       this.left = left;
       this.operator = operator;
@@ -41,15 +46,17 @@ abstract class Expr {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitBinaryExpr(this);
     }
 
-    final Expr left;
-    final Token operator;
-    final Expr right;
+    public final Expr left;
+    public final Token operator;
+    public final Expr right;
+
+    Specialization specialization = Specialization.UNINITIALIZED;
   }
-  static class Call extends Expr {
+  public static class Call extends Expr {
     Call(Expr callee, Token paren, List<Expr> arguments) {
       this.callee = callee;
       this.paren = paren;
@@ -57,41 +64,47 @@ abstract class Expr {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitCallExpr(this);
     }
 
-    final Expr callee;
-    final Token paren;
-    final List<Expr> arguments;
+    public final Expr callee;
+    public final Token paren;
+    public final List<Expr> arguments;
+
+    InlineCache cache;
+    InlinedCall inlined;
+    LinkedCallSite site;
   }
-  static class Get extends Expr {
+  public static class Get extends Expr {
     Get(Expr object, Token name) {
       this.object = object;
       this.name = name;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitGetExpr(this);
     }
 
-    final Expr object;
-    final Token name;
+    public final Expr object;
+    public final Token name;
+
+    InlineCache cache;
   }
-  static class Array extends Expr {
+  public static class Array extends Expr {
     Array(List<Expr> elements) {
       this.elements = elements;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitArrayExpr(this);
     }
 
-    final List<Expr> elements;
+    public final List<Expr> elements;
   }
-  static class ArrayAccess extends Expr {
+  public static class ArrayAccess extends Expr {
     ArrayAccess(Expr array, Token bracket, Expr index) {
       this.array = array;
       this.bracket = bracket;
@@ -99,39 +112,39 @@ abstract class Expr {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitArrayAccessExpr(this);
     }
 
-    final Expr array;
-    final Token bracket;
-    final Expr index;
+    public final Expr array;
+    public final Token bracket;
+    public final Expr index;
   }
-  static class Grouping extends Expr {
+  public static class Grouping extends Expr {
     Grouping(Expr expression) {
       this.expression = expression;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitGroupingExpr(this);
     }
 
-    final Expr expression;
+    public final Expr expression;
   }
-  static class Literal extends Expr {
+  public static class Literal extends Expr {
     Literal(Object value) {
       this.value = value;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitLiteralExpr(this);
     }
 
-    final Object value;
+    public final Object value;
   }
-  static class Logical extends Expr {
+  public static class Logical extends Expr {
     Logical(Expr left, Token operator, Expr right) {
       this.left = left;
       this.operator = operator;
@@ -139,15 +152,17 @@ abstract class Expr {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitLogicalExpr(this);
     }
 
-    final Expr left;
-    final Token operator;
-    final Expr right;
+    public final Expr left;
+    public final Token operator;
+    public final Expr right;
+
+    Specialization specialization = Specialization.UNINITIALIZED;
   }
-  static class Set extends Expr {
+  public static class Set extends Expr {
     Set(Expr object, Token name, Expr value) {
       this.object = object;
       this.name = name;
@@ -155,41 +170,50 @@ abstract class Expr {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitSetExpr(this);
     }
 
-    final Expr object;
-    final Token name;
-    final Expr value;
+    public final Expr object;
+    public final Token name;
+    public final Expr value;
+
+    InlineCache cache;
   }
-  static class This extends Expr {
+  public static class This extends Expr {
     This(Token keyword) {
       this.keyword = keyword;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitThisExpr(this);
     }
 
-    final Token keyword;
+    public final Token keyword;
+
+    int depth;
+    int slot = -1;
+    boolean isGlobal = true;
+    boolean captured;
   }
-  static class Unary extends Expr {
+  public static class Unary extends Expr {
     Unary(Token operator, Expr right) {
       this.operator = operator;
       this.right = right;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitUnaryExpr(this);
     }
 
-    final Token operator;
-    final Expr right;
+    public final Token operator;
+    public final Expr right;
+
+    Specialization specialization = Specialization.UNINITIALIZED;
   }
-  static class Conditional extends Expr {
+  public static class Conditional extends Expr {
     Conditional(Expr expr, Expr thenBranch, Expr elseBranch) {
       this.expr = expr;
       this.thenBranch = thenBranch;
@@ -197,26 +221,31 @@ abstract class Expr {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitConditionalExpr(this);
     }
 
-    final Expr expr;
-    final Expr thenBranch;
-    final Expr elseBranch;
+    public final Expr expr;
+    public final Expr thenBranch;
+    public final Expr elseBranch;
   }
-  static class Variable extends Expr {
+  public static class Variable extends Expr {
     Variable(Token name) {
       this.name = name;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitVariableExpr(this);
     }
 
-    final Token name;
+    public final Token name;
+
+    int depth;
+    int slot = -1;
+    boolean isGlobal = true;
+    boolean captured;
   }
 
-  abstract <R> R accept(Visitor<R> visitor);
+  public abstract <R> R accept(Visitor<R> visitor);
 }
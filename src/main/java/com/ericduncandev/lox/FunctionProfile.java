@@ -0,0 +1,125 @@
+package com.ericduncandev.lox;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// What the Interpreter has seen one function declaration do: how often it
+// was called, how many loop iterations (back edges) it ran, and how many
+// times Tiering had to deoptimize it. Every closure made from the same
+// declaration shares the profile. Profiles are only kept when something
+// reads them: with --tiering or --profile.
+//
+// With --profile, they also record the types each parameter was called
+// with and the time spent in the body itself, not counting the functions
+// it called. That costs a clock read per call, so --tiering goes without.
+class FunctionProfile {
+    // One bit per type of value, for argumentTypes.
+    private static final String[] TYPE_NAMES = {
+            "nil", "boolean", "number", "string", "array", "class", "function", "instance"
+    };
+
+    // All profiles, when tracking them for --profile.
+    private static List<FunctionProfile> profiles = null;
+
+    final Stmt.Function function;
+    long invocations = 0;
+    long backEdges = 0;
+    int deoptimizations = 0;
+    long selfNanos = 0;
+    // For each parameter, the set of types it has been called with.
+    private final int[] argumentTypes;
+    // The counts when the function was last deoptimized.
+    private long invocationsAtDeoptimization = 0;
+    private long backEdgesAtDeoptimization = 0;
+
+    private FunctionProfile(Stmt.Function function) {
+        this.function = function;
+        this.argumentTypes = new int[function.params == null ? 0 : function.params.size()];
+    }
+
+    static FunctionProfile of(Stmt.Function function) {
+        if (function.profile == null) {
+            function.profile = new FunctionProfile(function);
+            if (profiles != null) profiles.add(function.profile);
+        }
+        return function.profile;
+    }
+
+    // Calls and back edges since the last deoptimization.
+    long recentInvocations() {
+        return invocations - invocationsAtDeoptimization;
+    }
+
+    long recentBackEdges() {
+        return backEdges - backEdgesAtDeoptimization;
+    }
+
+    void deoptimized() {
+        deoptimizations++;
+        invocationsAtDeoptimization = invocations;
+        backEdgesAtDeoptimization = backEdges;
+    }
+
+    // The arguments are in stack from first on.
+    void recordArguments(Object[] stack, int first) {
+        for (int i = 0; i < argumentTypes.length; i++) {
+            argumentTypes[i] |= typeOf(stack[first + i]);
+        }
+    }
+
+    private static int typeOf(Object value) {
+        if (value == null) return 1;
+        if (value instanceof Boolean) return 1 << 1;
+        if (value instanceof Double) return 1 << 2;
+        if (Rope.isString(value)) return 1 << 3;
+        if (value instanceof List) return 1 << 4;
+        if (value instanceof LoxClass) return 1 << 5;
+        if (value instanceof LoxCallable) return 1 << 6;
+        return 1 << 7;
+    }
+
+    private String describeArguments() {
+        if (argumentTypes.length == 0) return "no arguments";
+
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < argumentTypes.length; i++) {
+            if (i > 0) builder.append(", ");
+            builder.append(function.params.get(i).lexeme).append(": ");
+            if (argumentTypes[i] == 0) builder.append("?");
+            String separator = "";
+            for (int type = 0; type < TYPE_NAMES.length; type++) {
+                if ((argumentTypes[i] & (1 << type)) == 0) continue;
+                builder.append(separator).append(TYPE_NAMES[type]);
+                separator = "|";
+            }
+        }
+        return builder.toString();
+    }
+
+    static void trackFunctions() {
+        profiles = new ArrayList<>();
+    }
+
+    // Prints the top functions that were called, by self time.
+    static void printProfile(int top) {
+        if (profiles == null) return;
+
+        List<FunctionProfile> called = new ArrayList<>();
+        for (FunctionProfile profile : profiles) {
+            if (profile.invocations > 0) called.add(profile);
+        }
+        Collections.sort(called, (a, b) -> Long.compare(b.selfNanos, a.selfNanos));
+
+        System.err.println("Profile (top " + Math.min(top, called.size()) + " of " +
+                called.size() + " functions, by self time):");
+        for (FunctionProfile profile : called.subList(0, Math.min(top, called.size()))) {
+            System.err.println(String.format("  %-11s %-16s %10.3f ms  calls %d, back edges %d%s  (%s)",
+                    "[line " + profile.function.name.line + "]", profile.function.name.lexeme,
+                    profile.selfNanos / 1e6, profile.invocations, profile.backEdges,
+                    profile.deoptimizations > 0
+                            ? ", deoptimized " + profile.deoptimizations + "x" : "",
+                    profile.describeArguments()));
+        }
+    }
+}
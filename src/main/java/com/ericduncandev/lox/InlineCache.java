@@ -0,0 +1,164 @@
+package com.ericduncandev.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A property lookup cache attached to one Get, Set or method Call site.
+// Each entry remembers a receiver Shape and what the lookup found for it:
+// the field slot, or the class method when no field shadows it. A Set
+// entry also remembers the shape the instance moves to if the field is
+// new. A site that has seen more than POLYMORPHIC_LIMIT shapes gives up
+// and always takes the slow path.
+class InlineCache {
+    enum State {
+        UNINITIALIZED,
+        MONOMORPHIC,
+        POLYMORPHIC,
+        MEGAMORPHIC
+    }
+
+    static final int POLYMORPHIC_LIMIT = 4;
+
+    // Every cache created, when statistics have been asked for.
+    private static List<InlineCache> sites = null;
+
+    private final String kind;
+    private final Token name;
+    private final Shape[] shapes = new Shape[POLYMORPHIC_LIMIT];
+    private final int[] slots = new int[POLYMORPHIC_LIMIT];
+    private final LoxFunction[] methods = new LoxFunction[POLYMORPHIC_LIMIT];
+    private final Shape[] targets = new Shape[POLYMORPHIC_LIMIT];
+    private int size = 0;
+    private boolean megamorphic = false;
+    long hits = 0;
+    long misses = 0;
+
+    private InlineCache(String kind, Token name) {
+        this.kind = kind;
+        this.name = name;
+        if (sites != null) sites.add(this);
+    }
+
+    static InlineCache of(Expr.Get expr) {
+        if (expr.cache == null) expr.cache = new InlineCache("get", expr.name);
+        return expr.cache;
+    }
+
+    static InlineCache of(Expr.Set expr) {
+        if (expr.cache == null) expr.cache = new InlineCache("set", expr.name);
+        return expr.cache;
+    }
+
+    // A call whose callee is a property access looks the property up
+    // through the call's own cache.
+    static InlineCache of(Expr.Call expr) {
+        if (expr.cache == null) {
+            expr.cache = new InlineCache("call", ((Expr.Get) expr.callee).name);
+        }
+        return expr.cache;
+    }
+
+    State state() {
+        if (megamorphic) return State.MEGAMORPHIC;
+        if (size == 0) return State.UNINITIALIZED;
+        return size == 1 ? State.MONOMORPHIC : State.POLYMORPHIC;
+    }
+
+    // Finds the entry describing the property on this instance, filling
+    // one in on a miss. What it found is read back with methodAt() and
+    // slotAt().
+    int lookUp(LoxInstance instance) {
+        Shape shape = instance.shape();
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] == shape) {
+                hits++;
+                return i;
+            }
+        }
+
+        misses++;
+        int slot = shape.indexOf(name.lexeme);
+        LoxFunction method = null;
+        if (slot < 0) {
+            method = instance.methodOfClass(name.lexeme);
+            if (method == null) {
+                throw new RuntimeError(name,
+                        "Undefined property '" + name.lexeme + "'.");
+            }
+        }
+        return record(shape, slot, method, shape);
+    }
+
+    // The method the property names, or null if it is a field.
+    LoxFunction methodAt(int entry) {
+        return methods[entry];
+    }
+
+    // Whether the property is a method that can be called on the instance
+    // without binding it. Getters run on access instead.
+    boolean isInvocable(int entry) {
+        return methods[entry] != null && !methods[entry].isGetter();
+    }
+
+    int slotAt(int entry) {
+        return slots[entry];
+    }
+
+    // Same effect as LoxInstance.set().
+    void set(LoxInstance instance, Object value) {
+        Shape shape = instance.shape();
+        for (int i = 0; i < size; i++) {
+            if (shapes[i] == shape) {
+                hits++;
+                instance.setField(slots[i], targets[i], value);
+                return;
+            }
+        }
+
+        misses++;
+        Shape target = shape;
+        int slot = shape.indexOf(name.lexeme);
+        if (slot < 0) {
+            target = shape.withField(name.lexeme);
+            slot = target.fieldCount() - 1;
+        }
+        record(shape, slot, null, target);
+        instance.setField(slot, target, value);
+    }
+
+    private int record(Shape shape, int slot, LoxFunction method, Shape target) {
+        if (size == POLYMORPHIC_LIMIT) {
+            megamorphic = true;
+            size = 0;
+        }
+
+        // A megamorphic site keeps no entries, but the first one still
+        // holds the result of the lookup just made.
+        int entry = megamorphic ? 0 : size++;
+        shapes[entry] = shape;
+        slots[entry] = slot;
+        methods[entry] = method;
+        targets[entry] = target;
+        return entry;
+    }
+
+    static void trackSites() {
+        sites = new ArrayList<>();
+    }
+
+    static void printStatistics() {
+        if (sites == null) return;
+
+        long hits = 0;
+        long misses = 0;
+        System.err.println("Inline caches:");
+        for (InlineCache site : sites) {
+            System.err.println(String.format("  %-11s %-4s %-16s %-13s hits %d, misses %d",
+                    "[line " + site.name.line + "]", site.kind, site.name.lexeme, site.state(),
+                    site.hits, site.misses));
+            hits += site.hits;
+            misses += site.misses;
+        }
+        System.err.println("  " + sites.size() + " sites, hits " + hits + ", misses " + misses);
+    }
+}
@@ -0,0 +1,178 @@
+package com.ericduncandev.lox;
+
+import java.util.List;
+
+// Inlining of small functions at one call site. A function qualifies when
+// its body is a single return of an expression that uses nothing but its
+// parameters, literals and operators, so it cannot call anything (itself
+// included) or depend on where it was declared. The call's arguments have
+// to be literals, locals or 'this', which can be read in any order, any
+// number of times.
+//
+// The site first watches which function it calls. Once it has called the
+// same declaration INLINE_AFTER times in a row, it builds a copy of the
+// returned expression with each parameter replaced by its argument, and
+// evaluates that instead of calling. The callee is still looked up each
+// time as a guard: if the name is ever bound to a different function, the
+// site goes back to calling and stays that way.
+class InlinedCall {
+    static final int INLINE_AFTER = 8;
+
+    // For sites that cannot be inlined, or have stopped being inlined.
+    private static final InlinedCall NEVER = new InlinedCall(null);
+
+    private final Stmt.Function target;
+    private int calls = 0;
+    Expr body = null;
+    // Filled in by the ClosureCompiler from body, the first time it runs.
+    ClosureCompiler.ExprNode compiled = null;
+
+    private InlinedCall(Stmt.Function target) {
+        this.target = target;
+    }
+
+    // The inlined site to evaluate instead of calling callee, or null if
+    // the call has to be made.
+    static InlinedCall at(Expr.Call call, Object callee) {
+        InlinedCall site = call.inlined;
+        if (site == NEVER) return null;
+
+        Stmt.Function declaration = callee instanceof LoxFunction
+                ? ((LoxFunction) callee).declaration : null;
+        if (site == null) {
+            if (declaration == null || !canInline(call, (LoxFunction) callee)) {
+                call.inlined = NEVER;
+                return null;
+            }
+            site = call.inlined = new InlinedCall(declaration);
+        }
+
+        if (declaration != site.target) {
+            call.inlined = NEVER;
+            return null;
+        }
+        if (site.body != null) return site;
+
+        if (++site.calls == INLINE_AFTER) {
+            Expr value = ((Stmt.Return) declaration.body.get(0)).value;
+            site.body = substitute(value, declaration.params, call.arguments);
+        }
+        return null;
+    }
+
+    static boolean hasSimpleArguments(Expr.Call call) {
+        for (Expr argument : call.arguments) {
+            if (argument instanceof Expr.Literal) continue;
+            if (argument instanceof Expr.This) continue;
+            if (argument instanceof Expr.Variable &&
+                    !((Expr.Variable) argument).isGlobal) {
+                continue;
+            }
+            return false;
+        }
+        return true;
+    }
+
+    private static boolean canInline(Expr.Call call, LoxFunction function) {
+        Stmt.Function declaration = function.declaration;
+        if (function.isInitializer || declaration.params == null) return false;
+        if (declaration.params.size() != call.arguments.size()) return false;
+        if (!hasSimpleArguments(call)) return false;
+
+        if (declaration.body.size() != 1) return false;
+        if (!(declaration.body.get(0) instanceof Stmt.Return)) return false;
+        Expr value = ((Stmt.Return) declaration.body.get(0)).value;
+        return value != null && usesOnlyParameters(value, declaration.params);
+    }
+
+    private static boolean usesOnlyParameters(Expr expr, List<Token> params) {
+        if (expr instanceof Expr.Literal) return true;
+
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            return !variable.isGlobal && parameter(variable, params) >= 0;
+        }
+
+        if (expr instanceof Expr.Grouping) {
+            return usesOnlyParameters(((Expr.Grouping) expr).expression, params);
+        }
+
+        if (expr instanceof Expr.Unary) {
+            return usesOnlyParameters(((Expr.Unary) expr).right, params);
+        }
+
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return usesOnlyParameters(binary.left, params) &&
+                    usesOnlyParameters(binary.right, params);
+        }
+
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            return usesOnlyParameters(logical.left, params) &&
+                    usesOnlyParameters(logical.right, params);
+        }
+
+        if (expr instanceof Expr.Conditional) {
+            Expr.Conditional conditional = (Expr.Conditional) expr;
+            return usesOnlyParameters(conditional.expr, params) &&
+                    usesOnlyParameters(conditional.thenBranch, params) &&
+                    usesOnlyParameters(conditional.elseBranch, params);
+        }
+
+        return false;
+    }
+
+    private static int parameter(Expr.Variable variable, List<Token> params) {
+        for (int i = 0; i < params.size(); i++) {
+            if (params.get(i).lexeme.equals(variable.name.lexeme)) return i;
+        }
+        return -1;
+    }
+
+    // A copy of expr with each parameter replaced by its argument. The
+    // arguments have already been resolved where the call is, so they can
+    // be used as they are. The operators are copied so their
+    // specializations belong to this site alone.
+    private static Expr substitute(Expr expr, List<Token> params, List<Expr> arguments) {
+        if (expr instanceof Expr.Variable) {
+            return arguments.get(parameter((Expr.Variable) expr, params));
+        }
+
+        if (expr instanceof Expr.Grouping) {
+            return substitute(((Expr.Grouping) expr).expression, params, arguments);
+        }
+
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            return new Expr.Unary(unary.operator,
+                    substitute(unary.right, params, arguments));
+        }
+
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return new Expr.Binary(
+                    substitute(binary.left, params, arguments),
+                    binary.operator,
+                    substitute(binary.right, params, arguments));
+        }
+
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            return new Expr.Logical(
+                    substitute(logical.left, params, arguments),
+                    logical.operator,
+                    substitute(logical.right, params, arguments));
+        }
+
+        if (expr instanceof Expr.Conditional) {
+            Expr.Conditional conditional = (Expr.Conditional) expr;
+            return new Expr.Conditional(
+                    substitute(conditional.expr, params, arguments),
+                    substitute(conditional.thenBranch, params, arguments),
+                    substitute(conditional.elseBranch, params, arguments));
+        }
+
+        return expr;
+    }
+}
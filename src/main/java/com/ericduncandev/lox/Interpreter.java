@@ -1,33 +1,66 @@
 package com.ericduncandev.lox;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
 class Interpreter implements Expr.Visitor<Object>,
-        Stmt.Visitor<Void> {
+        Stmt.Visitor<Completion> {
 
-    private static Object uninitialized = new Object();
-    private boolean DEBUG = false;
+    static Object uninitialized = new Object();
     final Environment globals;
+    // Where print statements write to.
+    final OutputSink output;
+    // The environment of the innermost scope with captured locals.
     Environment environment;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    // The value stack. Each call gets a frame on it for the locals that
+    // no closure captures, which live at base plus their slot.
+    Object[] stack = new Object[256];
+    int base = 0;
+    // Where the current frame ends and the next call's begins.
+    int top = 0;
     private final ModuleSystem moduleSystem;
+    // Set when running with --engine=closure; scripts, modules and REPL
+    // input are then compiled to closures instead of being walked.
+    ClosureCompiler compiler = null;
+    // Set with --tiering; hot functions are then compiled (see Tiering).
+    Tiering tiering = null;
+    // Set with --trace (or DEBUG); see ExecutionListener.
+    ExecutionListener listener = null;
+    // Set with --method-handles; plain calls then go through a
+    // LinkedCallSite.
+    boolean linkCalls = false;
+    // Set with --profile; function profiles then also record argument
+    // types and time (see FunctionProfile).
+    boolean profiling = false;
+    // The function whose body is being walked, to charge loops to.
+    Stmt.Function running = null;
+    // With --profile, the time spent so far in functions called by the
+    // one running, so it can be left out of that one's self time.
+    long calleeNanos = 0;
+    // The value of the return statement that last completed with RETURN.
+    Object returnValue = null;
 
 
     Interpreter(boolean DEBUG) {
-        this.DEBUG = DEBUG;
-        globals = new Environment(DEBUG);
+        if (DEBUG) listener = new TraceLog(this, System.err);
+        output = new OutputSink();
+        globals = new Environment();
         environment = globals;
-        moduleSystem = new ModuleSystem(this, DEBUG);
+        moduleSystem = new ModuleSystem(this);
         globals.define("clock", new LoxCallable() {
             @Override
             public int arity() { return 0; }
 
             @Override
             public Object call(Interpreter interpreter, Token callToken, List<Object> arguments) {
+                return call0(interpreter, callToken);
+            }
+
+            @Override
+            public Object call0(Interpreter interpreter, Token callToken) {
                 return (double)System.currentTimeMillis() / 1000.0;
             }
 
@@ -43,10 +76,15 @@ class Interpreter implements Expr.Visitor<Object>,
                 if (arguments.isEmpty()) {
                     throw new RuntimeError(callToken, "Error thrown with no message.");
                 } else {
-                    throw new RuntimeError(callToken, stringify(arguments.get(0)));
+                    return call1(interpreter, callToken, arguments.get(0));
                 }
             }
 
+            @Override
+            public Object call1(Interpreter interpreter, Token callToken, Object message) {
+                throw new RuntimeError(callToken, stringify(message));
+            }
+
             @Override
             public String toString() { return "<native fn>"; }
         });
@@ -54,13 +92,20 @@ class Interpreter implements Expr.Visitor<Object>,
             public int arity() { return 1; }
 
             public Object call(Interpreter interpreter, Token callToken, List<Object> arguments) {
-               if (arguments.get(0) instanceof Double) {
+               return call1(interpreter, callToken, arguments.get(0));
+            }
+
+            @Override
+            public Object call1(Interpreter interpreter, Token callToken, Object value) {
+               if (value instanceof Double) {
                    throw new RuntimeError(callToken, "Arguments to 'len' must be a string.");
-               } else if (arguments.get(0) instanceof List) {
-                   return ((List<?>)arguments.get(0)).size();
+               } else if (value instanceof List) {
+                   return (double)((List<?>)value).size();
+               } else if (value instanceof Rope) {
+                   return (double)((Rope)value).length();
                }
                else {
-                   return stringify(arguments.get(0)).length();
+                   return (double)stringify(value).length();
                }
             }
 
@@ -71,25 +116,63 @@ class Interpreter implements Expr.Visitor<Object>,
     }
 
     void interpret(List<Stmt> statements) {
+        Environment scope = environment;
+        int frame = base;
+        int end = top;
+        Stmt.Function function = running;
         try {
+            if (compiler != null) {
+                compiler.compile(statements).execute(environment);
+                return;
+            }
+
             for (Stmt statement : statements) {
                 execute(statement);
             }
         } catch (RuntimeError error) {
+            unwind(scope, function, frame, end);
             Lox.runtimeError(error);
         }
     }
 
+    void interpretModule(List<Stmt> statements) {
+        // Modules are resolved as top-level code, so they must run against
+        // the globals no matter where the import statement appeared.
+        Environment previous = this.environment;
+        try {
+            this.environment = globals;
+            interpret(statements);
+        } finally {
+            this.environment = previous;
+        }
+    }
+
     String interpret(Expr expression) {
+        Environment scope = environment;
+        int frame = base;
+        int end = top;
+        Stmt.Function function = running;
         try {
-            Object value = evaluate(expression);
+            Object value = compiler != null
+                    ? compiler.compile(expression).evaluate(environment)
+                    : evaluate(expression);
             return stringify(value);
         } catch (RuntimeError error) {
+            unwind(scope, function, frame, end);
             Lox.runtimeError(error);
             return null;
         }
     }
 
+    // Drops the frames of the calls an error unwound.
+    private void unwind(Environment scope, Stmt.Function function, int frame, int end) {
+        Arrays.fill(stack, end, top, null);
+        environment = scope;
+        running = function;
+        base = frame;
+        top = end;
+    }
+
     @Override
     public Object visitLiteralExpr(Expr.Literal expr) {
         return expr.value;
@@ -99,10 +182,19 @@ class Interpreter implements Expr.Visitor<Object>,
     public Object visitLogicalExpr(Expr.Logical expr) {
         Object left = evaluate(expr.left);
 
+        boolean truthy;
+        if (expr.specialization == Specialization.BOOLEAN_OPERAND &&
+                left instanceof Boolean) {
+            truthy = (boolean) left;
+        } else {
+            expr.specialization = Specialization.forLogical(expr.specialization, left);
+            truthy = isTruthy(left);
+        }
+
         if (expr.operator.type == TokenType.OR) {
-            if (isTruthy(left)) return left;
+            if (truthy) return left;
         } else {
-            if (!isTruthy(left)) return left;
+            if (!truthy) return left;
         }
 
         return evaluate(expr.right);
@@ -118,24 +210,44 @@ class Interpreter implements Expr.Visitor<Object>,
         }
 
         Object value = evaluate(expr.value);
-        ((LoxInstance)object).set(expr.name, value);
+        InlineCache.of(expr).set((LoxInstance)object, value);
         return value;
     }
 
     @Override
     public Object visitThisExpr(Expr.This expr) {
-        return lookUpVariable(expr.keyword, expr);
+        return lookUpVariable(expr.keyword, expr.isGlobal, expr.captured, expr.depth, expr.slot);
     }
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr) {
         Object right = evaluate(expr.right);
 
-        switch (expr.operator.type) {
+        switch (expr.specialization) {
+            case NEGATE_NUMBER:
+                if (right instanceof Double) return -(double) right;
+                break;
+            case NOT_BOOLEAN:
+                if (right instanceof Boolean) return !(boolean) right;
+                break;
+            case GENERIC:
+                return unary(expr.operator, right);
+            case UNINITIALIZED:
+                expr.specialization = Specialization.forUnary(expr.operator.type, right);
+                return unary(expr.operator, right);
+        }
+
+        // The operand no longer fits the specialization.
+        expr.specialization = Specialization.GENERIC;
+        return unary(expr.operator, right);
+    }
+
+    private Object unary(Token operator, Object right) {
+        switch (operator.type) {
             case BANG:
                 return !isTruthy(right);
             case MINUS:
-                checkNumberOperand(expr.operator, right);
+                checkNumberOperand(operator, right);
                 return -(double) right;
         }
 
@@ -145,22 +257,21 @@ class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return lookUpVariable(expr.name, expr);
+        return lookUpVariable(expr.name, expr.isGlobal, expr.captured, expr.depth, expr.slot);
     }
 
-    private Object lookUpVariable(Token name, Expr expr) {
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            if(DEBUG) {
-                System.out.println("Debug: Looking up local variable " + name.lexeme + " at distance " + distance);
-            }
-            return environment.getAt(distance, name.lexeme);
+    private Object lookUpVariable(Token name, boolean isGlobal, boolean captured,
+                                  int depth, int slot) {
+        Object value;
+        if (isGlobal) {
+            value = globals.getGlobal(slot, name);
+        } else if (captured) {
+            value = environment.getAt(depth, slot);
         } else {
-            if(DEBUG) {
-                System.out.println("Debug: Looking up global variable " + name.lexeme);
-            }
-            return globals.get(name);
+            value = stack[base + slot];
         }
+        if (listener != null) listener.onVariableRead(name, value);
+        return value;
     }
 
     @Override
@@ -174,32 +285,35 @@ class Interpreter implements Expr.Visitor<Object>,
         return evaluate(expr.elseBranch);
     }
 
-    private void checkNumberOperand(Token operator, Object operand) {
+    void checkNumberOperand(Token operator, Object operand) {
         if (operand instanceof Double) return;
         throw new RuntimeError(operator, "Operand must be a number.");
     }
 
-    private void checkNumberOperands(Token operator,
+    void checkNumberOperands(Token operator,
                                      Object left, Object right) {
         if (left instanceof Double && right instanceof Double) return;
 
         throw new RuntimeError(operator, "Operands must be numbers.");
     }
 
-    private boolean isTruthy(Object object) {
+    boolean isTruthy(Object object) {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean) object;
         return true;
     }
 
-    private boolean isEqual(Object a, Object b) {
+    boolean isEqual(Object a, Object b) {
         if (a == null && b == null) return true;
         if (a == null) return false;
+        // String.equals() does not know about ropes.
+        if (a instanceof Rope) return a.equals(b);
+        if (b instanceof Rope) return b.equals(a);
 
         return a.equals(b);
     }
 
-    private String stringify(Object object) {
+    String stringify(Object object) {
         if (object == null) return "nil";
 
         if (object instanceof Double) {
@@ -241,38 +355,105 @@ class Interpreter implements Expr.Visitor<Object>,
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    // Reserves a frame of size slots after the current one, for a call to
+    // make current, and returns its base.
+    int push(int size) {
+        int frame = top;
+        top += size;
+        if (top > stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(top, stack.length * 2));
+        }
+        return frame;
     }
 
-    void resolve(Expr expr, int depth) {
-        locals.put(expr, depth);
+    // Drops the current frame, making the caller's current again. Its
+    // slots are cleared so they do not keep dead values reachable.
+    void pop(int callerBase) {
+        for (int i = base; i < top; i++) stack[i] = null;
+        top = base;
+        base = callerBase;
+    }
+
+    // Stores the value of a declaration where the Resolver put it.
+    private void define(Token name, boolean isGlobal, boolean captured, int slot,
+                        Object value) {
+        if (isGlobal) {
+            environment.define(name.lexeme, value);
+        } else if (captured) {
+            environment.setSlot(slot, value);
+        } else {
+            stack[base + slot] = value;
+        }
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
+    Completion executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
             for (Stmt statement : statements) {
-                execute(statement);
+                Completion completion = execute(statement);
+                if (completion != Completion.NORMAL) return completion;
             }
+            return Completion.NORMAL;
         } finally {
             this.environment = previous;
         }
     }
 
+    // Profiles are only kept for --tiering and --profile.
+    boolean keepsProfiles() {
+        return tiering != null || profiling;
+    }
+
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment, DEBUG));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        if (stmt.frameSize == 0) return executeScope(stmt, environment);
+
+        // A block around top-level code, which has no frame of its own.
+        int callerBase = base;
+        base = push(stmt.frameSize);
+        try {
+            return executeScope(stmt, environment);
+        } finally {
+            pop(callerBase);
+        }
+    }
+
+    private Completion executeScope(Stmt.Block block, Environment enclosing) {
+        if (block.locals == 0) return executeBlock(block.statements, enclosing);
+
+        Environment scope = enterScope(block, enclosing);
+        Completion completion = executeBlock(block.statements, scope);
+        leaveScope(block, scope);
+        return completion;
+    }
+
+    // The environment for a block whose locals closures capture. A loop
+    // body needs a new one for each iteration only if a closure made in
+    // the last one kept it; otherwise the block takes back the one it
+    // left, whose slots its declarations overwrite before any use.
+    Environment enterScope(Stmt.Block block, Environment enclosing) {
+        Environment spare = block.spare;
+        if (spare != null && spare.enclosing == enclosing) {
+            block.spare = null;
+            return spare;
+        }
+        return new Environment(enclosing, new Object[block.locals], block.locals);
+    }
+
+    void leaveScope(Stmt.Block block, Environment scope) {
+        if (!scope.isClosedOver()) block.spare = scope;
     }
 
     @Override
-    public Void visitClassStmt(Stmt.Class stmt) {
-        environment.define(stmt.name.lexeme, null);
+    public Completion visitClassStmt(Stmt.Class stmt) {
         Map<String, LoxFunction> classMethods = new HashMap<>();
         for (Stmt.Function method : stmt.classMethods) {
-            LoxFunction function = new LoxFunction(method, environment, false, null, DEBUG);
+            LoxFunction function = new LoxFunction(method, environment, false, null);
             classMethods.put(method.name.lexeme, function);
         }
 
@@ -282,55 +463,55 @@ class Interpreter implements Expr.Visitor<Object>,
         Map<String, LoxFunction> methods = new HashMap<>();
         for (Stmt.Function method : stmt.methods) {
             LoxFunction function = new LoxFunction(method, environment,
-                    method.name.lexeme.equals("init"), null, DEBUG);
+                    method.name.lexeme.equals("init"), null);
             methods.put(method.name.lexeme, function);
         }
 
         LoxClass klass = new LoxClass(metaclass, stmt.name.lexeme, methods);
-        environment.assign(stmt.name, klass);
-        return null;
+        define(stmt.name, stmt.isGlobal, stmt.captured, stmt.slot, klass);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
         LoxFunction function = new LoxFunction(stmt, environment,
-                false, null, DEBUG);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+                false, null);
+        define(stmt.name, stmt.isGlobal, stmt.captured, stmt.slot, function);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if (isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitPrintStmt(Stmt.Print stmt) {
+    public Completion visitPrintStmt(Stmt.Print stmt) {
         Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
-        return null;
+        output.println(stringify(value));
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitImportStmt(Stmt.Import stmt) {
+    public Completion visitImportStmt(Stmt.Import stmt) {
         String path = (String) stmt.path.literal;
         try {
             moduleSystem.importModule(path);
         } catch (IOException e) {
             throw new RuntimeError(stmt.keyword, "Could not import module '" + path + "'.");
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     public void defineVariable(String name, Object value) {
@@ -338,7 +519,7 @@ class Interpreter implements Expr.Visitor<Object>,
     }
 
     @Override
-    public Void visitExportStmt(Stmt.Export stmt) {
+    public Completion visitExportStmt(Stmt.Export stmt) {
         execute(stmt.declaration);
         if (stmt.declaration instanceof Stmt.Var) {
             Stmt.Var varStmt = (Stmt.Var) stmt.declaration;
@@ -349,54 +530,63 @@ class Interpreter implements Expr.Visitor<Object>,
             Object value = environment.get(funcStmt.name);
             moduleSystem.exportDeclaration(funcStmt.name.lexeme, value);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
         if (stmt.value != null) value = evaluate(stmt.value);
 
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
     @Override
-    public Void visitVarStmt(Stmt.Var stmt) {
+    public Completion visitVarStmt(Stmt.Var stmt) {
         Object value = uninitialized;
         if (stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        if (listener != null) listener.onVariableWrite(stmt.name, value);
+        define(stmt.name, stmt.isGlobal, stmt.captured, stmt.slot, value);
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
-        try {
-            while (isTruthy(evaluate(stmt.condition))) {
-                execute(stmt.body);
+    public Completion visitWhileStmt(Stmt.While stmt) {
+        while (isTruthy(evaluate(stmt.condition))) {
+            Completion completion = execute(stmt.body);
+            if (completion == Completion.BREAK) break;
+            if (completion == Completion.RETURN) return completion;
+
+            if (running == null || running.profile == null) continue;
+            running.profile.backEdges++;
+            if (tiering != null && tiering.backEdge(running)) {
+                // This loop made its function hot. Finish it compiled.
+                return tiering.compileLoop(running, stmt).execute(environment);
             }
-        } catch (BreakException ex) {
-            // Do nothing.
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBreakStmt(Stmt.Break stmt) {
-        throw new BreakException();
+    public Completion visitBreakStmt(Stmt.Break stmt) {
+        return Completion.BREAK;
     }
 
     @Override
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        Integer distance = locals.get(expr);
-        if (distance != null) {
-            environment.assignAt(distance, expr.name, value);
+        if (expr.isGlobal) {
+            globals.assignGlobal(expr.slot, expr.name, value);
+        } else if (expr.captured) {
+            environment.assignAt(expr.depth, expr.slot, value);
         } else {
-            globals.assign(expr.name, value);
+            stack[base + expr.slot] = value;
         }
+        if (listener != null) listener.onVariableWrite(expr.name, value);
         return value;
     }
 
@@ -405,58 +595,146 @@ class Interpreter implements Expr.Visitor<Object>,
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
-        switch (expr.operator.type) {
+        // A specialized node only checks that its operands still have the
+        // types it saw before, then applies its one operator.
+        switch (expr.specialization) {
+            case ADD_NUMBERS:
+                if (left instanceof Double && right instanceof Double) {
+                    return (double) left + (double) right;
+                }
+                break;
+            case SUBTRACT_NUMBERS:
+                if (left instanceof Double && right instanceof Double) {
+                    return (double) left - (double) right;
+                }
+                break;
+            case MULTIPLY_NUMBERS:
+                if (left instanceof Double && right instanceof Double) {
+                    return (double) left * (double) right;
+                }
+                break;
+            case DIVIDE_NUMBERS:
+                if (left instanceof Double && right instanceof Double &&
+                        (double) right != 0) {
+                    return (double) left / (double) right;
+                }
+                break;
+            case MODULO_NUMBERS:
+                if (left instanceof Double && right instanceof Double) {
+                    return (double) left % (double) right;
+                }
+                break;
+            case GREATER_NUMBERS:
+                if (left instanceof Double && right instanceof Double) {
+                    return (double) left > (double) right;
+                }
+                break;
+            case GREATER_EQUAL_NUMBERS:
+                if (left instanceof Double && right instanceof Double) {
+                    return (double) left >= (double) right;
+                }
+                break;
+            case LESS_NUMBERS:
+                if (left instanceof Double && right instanceof Double) {
+                    return (double) left < (double) right;
+                }
+                break;
+            case LESS_EQUAL_NUMBERS:
+                if (left instanceof Double && right instanceof Double) {
+                    return (double) left <= (double) right;
+                }
+                break;
+            case EQUAL_NUMBERS:
+                if (left instanceof Double && right instanceof Double) {
+                    return left.equals(right);
+                }
+                break;
+            case NOT_EQUAL_NUMBERS:
+                if (left instanceof Double && right instanceof Double) {
+                    return !left.equals(right);
+                }
+                break;
+            case CONCATENATE_STRINGS:
+                if (Rope.isString(left) && Rope.isString(right)) {
+                    return Rope.concat((CharSequence) left, (CharSequence) right);
+                }
+                break;
+            case EQUAL_STRINGS:
+                if (Rope.isString(left) && Rope.isString(right)) {
+                    return isEqual(left, right);
+                }
+                break;
+            case NOT_EQUAL_STRINGS:
+                if (Rope.isString(left) && Rope.isString(right)) {
+                    return !isEqual(left, right);
+                }
+                break;
+            case GENERIC:
+                return binary(expr.operator, left, right);
+            case UNINITIALIZED:
+                expr.specialization = Specialization.forBinary(expr.operator.type, left, right);
+                return binary(expr.operator, left, right);
+        }
+
+        // The operands no longer fit the specialization. Dividing by zero
+        // also ends up here, to report the error.
+        expr.specialization = Specialization.GENERIC;
+        return binary(expr.operator, left, right);
+    }
+
+    Object binary(Token operator, Object left, Object right) {
+        switch (operator.type) {
             case GREATER:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left > (double) right;
             case GREATER_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left >= (double) right;
             case LESS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left < (double) right;
             case LESS_EQUAL:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left <= (double) right;
             case BANG_EQUAL:
                 return !isEqual(left, right);
             case EQUAL_EQUAL:
                 return isEqual(left, right);
             case MINUS:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left - (double) right;
             case PLUS:
-                if (left instanceof String || right instanceof String) {
-                    return stringify(left) + stringify(right);
+                if (Rope.isString(left) || Rope.isString(right)) {
+                    return concatenate(left, right);
                 }
 
                 if (left instanceof Double && right instanceof Double) {
                     return (double) left + (double) right;
                 }
 
-                throw new RuntimeError(expr.operator,
+                throw new RuntimeError(operator,
                         "Operands must be two numbers or two strings.");
             case SLASH:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 if ((double) right == 0) {
-                    throw new RuntimeError(expr.operator, "Attempted to divide by zero, which is not allowed.");
+                    throw new RuntimeError(operator, "Attempted to divide by zero, which is not allowed.");
                 }
                 return (double) left / (double) right;
             case STAR:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left * (double) right;
             case PERCENT:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 return (double) left % (double) right;
             case BAR:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 int leftInt = (int) ((Double) left).doubleValue();
                 int rightInt = (int) ((Double) right).doubleValue();
                 int intResult = leftInt | rightInt;
                 double result = (double) intResult;
                 return result;
             case XOR:
-                checkNumberOperands(expr.operator, left, right);
+                checkNumberOperands(operator, left, right);
                 int leftInt1 = (int) ((Double) left).doubleValue();
                 int rightInt1 = (int) ((Double) right).doubleValue();
                 int intResult1 = leftInt1 ^ rightInt1;
@@ -471,59 +749,175 @@ class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
-        Object callee = evaluate(expr.callee);
+        Object callee;
+        LoxInstance receiver = null;
+        if (expr.callee instanceof Expr.Get) {
+            // obj.method(args) runs the method with obj as its receiver
+            // rather than binding it first. The method is still looked up
+            // before the arguments are evaluated.
+            Expr.Get get = (Expr.Get) expr.callee;
+            LoxInstance instance = asInstance(evaluate(get.object), get.name);
+            InlineCache cache = InlineCache.of(expr);
+            int entry = cache.lookUp(instance);
+            callee = callee(instance, get.name, cache, entry);
+            if (cache.isInvocable(entry)) receiver = instance;
+        } else {
+            callee = evaluate(expr.callee);
+        }
+
+        InlinedCall inlined = InlinedCall.at(expr, callee);
+        if (inlined != null) return evaluate(inlined.body);
+
+        List<Expr> arguments = expr.arguments;
+        if (linkCalls && receiver == null && arguments.size() <= 3) {
+            return linkedCall(expr, callee);
+        }
+        switch (arguments.size()) {
+            case 0:
+                return call0(callee, receiver, expr.paren);
+            case 1:
+                return call1(callee, receiver, expr.paren,
+                        evaluate(arguments.get(0)));
+            case 2:
+                return call2(callee, receiver, expr.paren,
+                        evaluate(arguments.get(0)), evaluate(arguments.get(1)));
+            case 3:
+                return call3(callee, receiver, expr.paren,
+                        evaluate(arguments.get(0)), evaluate(arguments.get(1)),
+                        evaluate(arguments.get(2)));
+            default:
+                Object[] values = new Object[arguments.size()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = evaluate(arguments.get(i));
+                }
+                return callN(callee, receiver, expr.paren, values);
+        }
+    }
+
+    private Object linkedCall(Expr.Call expr, Object callee) {
+        LinkedCallSite site = LinkedCallSite.of(expr);
+        List<Expr> arguments = expr.arguments;
+        switch (arguments.size()) {
+            case 0:
+                return site.call0(callee, this, expr.paren);
+            case 1:
+                return site.call1(callee, this, expr.paren, evaluate(arguments.get(0)));
+            case 2:
+                return site.call2(callee, this, expr.paren,
+                        evaluate(arguments.get(0)), evaluate(arguments.get(1)));
+            default:
+                return site.call3(callee, this, expr.paren,
+                        evaluate(arguments.get(0)), evaluate(arguments.get(1)),
+                        evaluate(arguments.get(2)));
+        }
+    }
+
+    // The call helpers take the arguments directly. A receiver is given
+    // when the callee is a method found through a property of it; a
+    // LoxFunction is invoked with it, or with its own if there is none.
+    Object call0(Object callee, LoxInstance receiver, Token paren) {
+        LoxCallable function = callable(callee, paren, 0);
+        if (function instanceof LoxFunction) {
+            return ((LoxFunction) function).invoke0(this, receiver, paren);
+        }
+        return function.call0(this, paren);
+    }
+
+    Object call1(Object callee, LoxInstance receiver, Token paren, Object a) {
+        LoxCallable function = callable(callee, paren, 1);
+        if (function instanceof LoxFunction) {
+            return ((LoxFunction) function).invoke1(this, receiver, paren, a);
+        }
+        return function.call1(this, paren, a);
+    }
+
+    Object call2(Object callee, LoxInstance receiver, Token paren, Object a, Object b) {
+        LoxCallable function = callable(callee, paren, 2);
+        if (function instanceof LoxFunction) {
+            return ((LoxFunction) function).invoke2(this, receiver, paren, a, b);
+        }
+        return function.call2(this, paren, a, b);
+    }
 
-        List<Object> arguments = new ArrayList<>();
-        for (Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+    Object call3(Object callee, LoxInstance receiver, Token paren,
+                 Object a, Object b, Object c) {
+        LoxCallable function = callable(callee, paren, 3);
+        if (function instanceof LoxFunction) {
+            return ((LoxFunction) function).invoke3(this, receiver, paren, a, b, c);
         }
+        return function.call3(this, paren, a, b, c);
+    }
+
+    Object callN(Object callee, LoxInstance receiver, Token paren, Object[] arguments) {
+        LoxCallable function = callable(callee, paren, arguments.length);
+        if (function instanceof LoxFunction) {
+            return ((LoxFunction) function).invokeN(this, receiver, paren, arguments);
+        }
+        return function.callN(this, paren, arguments);
+    }
 
+    private LoxCallable callable(Object callee, Token paren, int argumentCount) {
         if (!(callee instanceof LoxCallable)) {
-            throw new RuntimeError(expr.paren,
+            throw new RuntimeError(paren,
                     "Can only call functions and classes.");
         }
 
         LoxCallable function = (LoxCallable)callee;
-
-        if (arguments.size() != function.arity()) {
-            throw new RuntimeError(expr.paren, "Expected " +
+        if (argumentCount != function.arity()) {
+            throw new RuntimeError(paren, "Expected " +
                     function.arity() + " arguments but got " +
-                    arguments.size() + ".");
+                    argumentCount + ".");
         }
+        return function;
+    }
 
-        return function.call(this, expr.paren, arguments);
+    // What a call through a property calls: the method itself when it can
+    // run on the instance directly, otherwise the property's value.
+    Object callee(LoxInstance instance, Token name, InlineCache cache, int entry) {
+        if (cache.isInvocable(entry)) return cache.methodAt(entry);
+        return property(instance, name, cache, entry);
     }
 
     @Override
     public Object visitGetExpr(Expr.Get expr) {
-        Object object = evaluate(expr.object);
-        if (object instanceof LoxInstance) {
-            Object result = ((LoxInstance) object).get(expr.name);
-            if (result instanceof LoxFunction &&
-                    ((LoxFunction) result).isGetter()) {
-                result = ((LoxFunction) result).call(this, expr.name, null);
-            }
+        return getProperty(evaluate(expr.object), expr.name,
+                InlineCache.of(expr));
+    }
 
-            return result;
+    Object getProperty(Object object, Token name, InlineCache cache) {
+        LoxInstance instance = asInstance(object, name);
+        return property(instance, name, cache, cache.lookUp(instance));
+    }
+
+    // The value of a property the cache has already looked up.
+    Object property(LoxInstance instance, Token name, InlineCache cache, int entry) {
+        LoxFunction method = cache.methodAt(entry);
+        if (method == null) {
+            return instance.getField(cache.slotAt(entry));
+        }
+        if (method.isGetter()) {
+            return method.invoke0(this, instance, name);
         }
 
-        throw new RuntimeError(expr.name,
+        // The method escapes as a value, so it has to carry its receiver.
+        return method.bind(instance);
+    }
+
+    LoxInstance asInstance(Object object, Token name) {
+        if (object instanceof LoxInstance) return (LoxInstance) object;
+
+        throw new RuntimeError(name,
                 "Only instances have properties.");
     }
 
     @Override
     public Object visitArrayExpr(Expr.Array expr) {
-        List<Object> elements = new ArrayList<>();
-        for (Expr element : expr.elements) {
-            Object value = evaluate(element);
-            elements.add(value);
-            if (DEBUG) {
-                System.out.println("Debug: Added element to array: " + stringify(value));
-            }
-        }
-        if (DEBUG) {
-            System.out.println("Debug: Created array: " + stringify(elements));
+        LoxArray elements = new LoxArray(expr.elements.size());
+        for (int i = 0; i < expr.elements.size(); i++) {
+            Object value = evaluate(expr.elements.get(i));
+            elements.store(i, value);
         }
+        if (listener != null) listener.onAllocation(elements);
         return elements;
     }
 
@@ -531,45 +925,54 @@ class Interpreter implements Expr.Visitor<Object>,
     public Object visitArrayAccessExpr(Expr.ArrayAccess expr) {
         Object target = evaluate(expr.array);
         Object index = evaluate(expr.index);
+        Object result = index(expr.bracket, target, index);
+        if (listener != null) listener.onIndex(expr.bracket, target, index, result);
+        return result;
+    }
 
-        if (DEBUG) {
-            System.out.println("Debug: Array/String access - Target: " + stringify(target) + ", Index: " + stringify(index));
-        }
-
+    Object index(Token bracket, Object target, Object index) {
         if (!(index instanceof Double)) {
-            throw new RuntimeError(expr.bracket, "Index must be a number.");
+            throw new RuntimeError(bracket, "Index must be a number.");
         }
 
         int intIndex = ((Double) index).intValue();
 
+        // Strings come first: loops over their characters index the most.
+        if (target instanceof String) return character(bracket, (String) target, intIndex);
+
         if (target instanceof List) {
             @SuppressWarnings("unchecked")
             List<Object> list = (List<Object>) target;
 
             if (intIndex < 0 || intIndex >= list.size()) {
-                throw new RuntimeError(expr.bracket, "Array index out of bounds.");
-            }
-
-            Object result = list.get(intIndex);
-            if (DEBUG) {
-                System.out.println("Debug: Array access result: " + stringify(result));
+                throw new RuntimeError(bracket, "Array index out of bounds.");
             }
-            return result;
-        } else if (target instanceof String) {
-            String str = (String) target;
 
-            if (intIndex < 0 || intIndex >= str.length()) {
-                throw new RuntimeError(expr.bracket, "String index out of bounds.");
-            }
-
-            String result = String.valueOf(str.charAt(intIndex));
-            if (DEBUG) {
-                System.out.println("Debug: String access result: " + stringify(result));
-            }
-            return result;
+            return list.get(intIndex);
+        } else if (target instanceof Rope) {
+            return character(bracket, target.toString(), intIndex);
         } else {
-            throw new RuntimeError(expr.bracket, "Can only index into arrays or strings.");
+            throw new RuntimeError(bracket, "Can only index into arrays or strings.");
+        }
+    }
+
+    private String character(Token bracket, String str, int index) {
+        if (index < 0 || index >= str.length()) {
+            throw new RuntimeError(bracket, "String index out of bounds.");
         }
+
+        return Characters.of(str.charAt(index));
+    }
+
+    // '+' with a string on at least one side. Strings and ropes are used as
+    // they are, since stringify() would flatten a rope.
+    Object concatenate(Object left, Object right) {
+        return Rope.concat(text(left), text(right));
+    }
+
+    private CharSequence text(Object value) {
+        if (Rope.isString(value)) return (CharSequence) value;
+        return stringify(value);
     }
 
     private void checkArrayOperand(Token operator, Object operand) {
@@ -582,10 +985,10 @@ class Interpreter implements Expr.Visitor<Object>,
         throw new RuntimeError(operator, "Array index must be a number.");
     }
 
-    private static class BreakException extends RuntimeException {
-    }
 
     class UnimplementedException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
         UnimplementedException(String message) {
             super(message);
         }
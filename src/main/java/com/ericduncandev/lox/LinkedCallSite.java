@@ -0,0 +1,181 @@
+package com.ericduncandev.lox;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.invoke.MutableCallSite;
+
+// A call site linked the way invokedynamic links one, selected with
+// --method-handles. Each plain call with up to three arguments gets a
+// MutableCallSite whose target takes the callee, the interpreter, the
+// call's paren and the arguments. It starts out pointing at relink(),
+// which looks at the callee it is given and puts a guarded handle in
+// front of the current target: "if the callee is this object, call its
+// call<N>() directly, skipping the callable and arity checks". A new
+// callee adds another guard, up to CHAIN_LIMIT of them; after that the
+// site is relinked to the Interpreter's generic dispatch for good.
+//
+// HotSpot only inlines through a call site it can treat as a constant, as
+// it does for one bound to an invokedynamic instruction. A site reached
+// through a field of an AST node is not one, so what this saves is the
+// checks, not the call; bench/calls.lox compares it with the Interpreter's
+// own dispatch.
+class LinkedCallSite {
+    static final int CHAIN_LIMIT = 4;
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+    private static final MethodHandle IS_TARGET;
+    private static final MethodHandle[] RELINK = new MethodHandle[4];
+    private static final MethodHandle[] CALL = new MethodHandle[4];
+    private static final MethodHandle[] GENERIC = new MethodHandle[4];
+
+    static {
+        try {
+            IS_TARGET = LOOKUP.findStatic(LinkedCallSite.class, "isTarget",
+                    MethodType.methodType(boolean.class, Object.class, Object.class));
+            for (int arguments = 0; arguments < 4; arguments++) {
+                MethodType call = callType(arguments).dropParameterTypes(0, 1);
+                CALL[arguments] = LOOKUP.findVirtual(LoxCallable.class, "call" + arguments, call);
+
+                RELINK[arguments] = LOOKUP.findVirtual(LinkedCallSite.class,
+                        "relink" + arguments, callType(arguments));
+
+                // Interpreter.call<N>(callee, receiver, paren, arguments...)
+                // with no receiver, and the interpreter moved to the front.
+                MethodHandle generic = LOOKUP.findVirtual(Interpreter.class,
+                        "call" + arguments, callType(arguments)
+                                .changeParameterType(1, LoxInstance.class));
+                generic = MethodHandles.insertArguments(generic, 2, (Object) null);
+                GENERIC[arguments] = MethodHandles.permuteArguments(generic,
+                        callType(arguments), permutation(arguments));
+            }
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final MutableCallSite site;
+    private final MethodHandle invoker;
+    private final int arguments;
+    private int linked = 0;
+
+    private LinkedCallSite(int arguments) {
+        this.arguments = arguments;
+        site = new MutableCallSite(callType(arguments));
+        site.setTarget(RELINK[arguments].bindTo(this));
+        invoker = site.dynamicInvoker();
+    }
+
+    static LinkedCallSite of(Expr.Call expr) {
+        if (expr.site == null) expr.site = new LinkedCallSite(expr.arguments.size());
+        return expr.site;
+    }
+
+    // (Object callee, Interpreter, Token paren, Object... arguments)Object
+    private static MethodType callType(int arguments) {
+        MethodType type = MethodType.methodType(Object.class,
+                Object.class, Interpreter.class, Token.class);
+        for (int i = 0; i < arguments; i++) {
+            type = type.appendParameterTypes(Object.class);
+        }
+        return type;
+    }
+
+    // Maps (interpreter, callee, paren, arguments...) onto the call type.
+    private static int[] permutation(int arguments) {
+        int[] order = new int[3 + arguments];
+        order[0] = 1;
+        order[1] = 0;
+        for (int i = 2; i < order.length; i++) {
+            order[i] = i;
+        }
+        return order;
+    }
+
+    private static boolean isTarget(Object expected, Object callee) {
+        return expected == callee;
+    }
+
+    Object call0(Object callee, Interpreter interpreter, Token paren) {
+        try {
+            return (Object) invoker.invokeExact(callee, interpreter, paren);
+        } catch (Throwable throwable) {
+            throw rethrow(throwable);
+        }
+    }
+
+    Object call1(Object callee, Interpreter interpreter, Token paren, Object a) {
+        try {
+            return (Object) invoker.invokeExact(callee, interpreter, paren, a);
+        } catch (Throwable throwable) {
+            throw rethrow(throwable);
+        }
+    }
+
+    Object call2(Object callee, Interpreter interpreter, Token paren, Object a, Object b) {
+        try {
+            return (Object) invoker.invokeExact(callee, interpreter, paren, a, b);
+        } catch (Throwable throwable) {
+            throw rethrow(throwable);
+        }
+    }
+
+    Object call3(Object callee, Interpreter interpreter, Token paren,
+                 Object a, Object b, Object c) {
+        try {
+            return (Object) invoker.invokeExact(callee, interpreter, paren, a, b, c);
+        } catch (Throwable throwable) {
+            throw rethrow(throwable);
+        }
+    }
+
+    private static RuntimeException rethrow(Throwable throwable) {
+        if (throwable instanceof RuntimeException) return (RuntimeException) throwable;
+        if (throwable instanceof Error) throw (Error) throwable;
+        throw new IllegalStateException(throwable);
+    }
+
+    // Links the site for callee and returns the handle to call it with.
+    private MethodHandle link(Object callee) {
+        if (!(callee instanceof LoxCallable) ||
+                ((LoxCallable) callee).arity() != arguments) {
+            // Not something the site can call directly; the generic path
+            // reports the error.
+            return GENERIC[arguments];
+        }
+
+        if (linked == CHAIN_LIMIT) {
+            site.setTarget(GENERIC[arguments]);
+            return GENERIC[arguments];
+        }
+
+        // call<N>(interpreter, paren, arguments...) on this callee, with
+        // the callee argument ignored.
+        MethodHandle direct = MethodHandles.dropArguments(
+                CALL[arguments].bindTo(callee), 0, Object.class);
+        MethodHandle test = MethodHandles.insertArguments(IS_TARGET, 0, callee);
+        site.setTarget(MethodHandles.guardWithTest(test, direct, site.getTarget()));
+        linked++;
+        return direct;
+    }
+
+    private Object relink0(Object callee, Interpreter interpreter, Token paren)
+            throws Throwable {
+        return (Object) link(callee).invokeExact(callee, interpreter, paren);
+    }
+
+    private Object relink1(Object callee, Interpreter interpreter, Token paren, Object a)
+            throws Throwable {
+        return (Object) link(callee).invokeExact(callee, interpreter, paren, a);
+    }
+
+    private Object relink2(Object callee, Interpreter interpreter, Token paren,
+                           Object a, Object b) throws Throwable {
+        return (Object) link(callee).invokeExact(callee, interpreter, paren, a, b);
+    }
+
+    private Object relink3(Object callee, Interpreter interpreter, Token paren,
+                           Object a, Object b, Object c) throws Throwable {
+        return (Object) link(callee).invokeExact(callee, interpreter, paren, a, b, c);
+    }
+}
@@ -0,0 +1,487 @@
+package com.ericduncandev.lox;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Loop-invariant code motion. An expression inside a loop that has no side
+// effects and reads nothing the loop can change gives the same value on
+// every iteration, so the loop only needs to compute it once.
+//
+// The hoisted value lives in a variable declared just before the loop, but
+// it is still computed where the expression was, the first time the loop
+// reaches it:
+//
+//   $ready ? $value : ($ready = true and $value = <expression>)
+//
+// That way a loop that never runs never evaluates it, and an expression
+// that fails still fails at the same point as before.
+class LoopInvariants implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // Below this, checking the cached value costs as much as recomputing.
+    private static final int MINIMUM_COST = 3;
+
+    private static class Hoisted {
+        final Token ready;
+        final Token value;
+
+        Hoisted(Token ready, Token value) {
+            this.ready = ready;
+            this.value = value;
+        }
+    }
+
+    private final SideEffects program;
+    private final boolean report;
+    private int hoistedCount = 0;
+
+    // State for the loop being rewritten.
+    private SideEffects loop;
+    private Map<String, Hoisted> hoisted;
+
+    LoopInvariants(SideEffects program, boolean report) {
+        this.program = program;
+        this.report = report;
+    }
+
+    // Returns the loop unchanged, or a block declaring the hoisted values
+    // followed by the rewritten loop.
+    Stmt hoist(Stmt.While stmt) {
+        loop = SideEffects.of(stmt, program);
+        hoisted = new LinkedHashMap<>();
+
+        Expr condition = rewrite(stmt.condition);
+        Stmt body = stmt.body.accept(this);
+        if (hoisted.isEmpty()) return stmt;
+
+        List<Stmt> statements = new ArrayList<>();
+        for (Hoisted value : hoisted.values()) {
+            statements.add(new Stmt.Var(value.ready, new Expr.Literal(false)));
+            statements.add(new Stmt.Var(value.value, null));
+        }
+        statements.add(new Stmt.While(condition, body));
+        return new Stmt.Block(statements);
+    }
+
+    private Expr rewrite(Expr expr) {
+        if (cost(expr) >= MINIMUM_COST && isInvariant(expr)) {
+            return cached(expr);
+        }
+        return expr.accept(this);
+    }
+
+    private Expr cached(Expr expr) {
+        String key = key(expr);
+        Hoisted value = hoisted.get(key);
+        if (value == null) {
+            int line = line(expr);
+            int id = hoistedCount++;
+            value = new Hoisted(
+                    new Token(TokenType.IDENTIFIER, "$ready" + id, null, line),
+                    new Token(TokenType.IDENTIFIER, "$invariant" + id, null, line));
+            hoisted.put(key, value);
+
+            if (report) {
+                System.err.println("[line " + line + "] Hoisted " +
+                        new AstPrinter().print(expr) + " out of the loop.");
+            }
+        }
+
+        Token and = new Token(TokenType.AND, "and", null, value.ready.line);
+        return new Expr.Conditional(
+                new Expr.Variable(value.ready),
+                new Expr.Variable(value.value),
+                new Expr.Logical(
+                        new Expr.Assign(value.ready, new Expr.Literal(true)),
+                        and,
+                        new Expr.Assign(value.value, expr)));
+    }
+
+    // Whether the expression has no side effects and gives the same value
+    // on every iteration of the loop.
+    private boolean isInvariant(Expr expr) {
+        if (expr instanceof Expr.Literal) return true;
+        if (expr instanceof Expr.This) return true;
+
+        if (expr instanceof Expr.Variable) {
+            return isStable(((Expr.Variable) expr));
+        }
+
+        if (expr instanceof Expr.Unary) {
+            return isInvariant(((Expr.Unary) expr).right);
+        }
+
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return binary.operator.type != TokenType.COMMA &&
+                    isInvariant(binary.left) && isInvariant(binary.right);
+        }
+
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            return isInvariant(logical.left) && isInvariant(logical.right);
+        }
+
+        if (expr instanceof Expr.Conditional) {
+            Expr.Conditional conditional = (Expr.Conditional) expr;
+            return isInvariant(conditional.expr) &&
+                    isInvariant(conditional.thenBranch) &&
+                    isInvariant(conditional.elseBranch);
+        }
+
+        // Arrays cannot be changed once they are created.
+        if (expr instanceof Expr.ArrayAccess) {
+            Expr.ArrayAccess access = (Expr.ArrayAccess) expr;
+            return isInvariant(access.array) && isInvariant(access.index);
+        }
+
+        // A property could be a getter, or a method that is bound to a new
+        // function each time, so only fields qualify: names that no class
+        // the program can see declares as a method.
+        if (expr instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr;
+            String name = get.name.lexeme;
+            return !program.imports && !program.methods.contains(name) &&
+                    !loop.properties.contains(name) && !loopCallsFunctions() &&
+                    isInvariant(get.object);
+        }
+
+        if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) expr;
+            return call.callee instanceof Expr.Variable &&
+                    ((Expr.Variable) call.callee).name.lexeme.equals("len") &&
+                    program.lenIsNative() && call.arguments.size() == 1 &&
+                    isInvariant(call.arguments.get(0));
+        }
+
+        return false;
+    }
+
+    // Whether a variable holds the same value throughout the loop.
+    private boolean isStable(Expr.Variable variable) {
+        String name = variable.name.lexeme;
+        if (loop.declared.contains(name) || loop.assigned.contains(name)) {
+            return false;
+        }
+        if (!loopCallsFunctions()) return true;
+
+        // A function called from the loop could assign it anywhere in the
+        // program, and a module it imports could redefine a global.
+        if (program.assigned.contains(name)) return false;
+        return !variable.isGlobal || !program.imports;
+    }
+
+    private boolean loopCallsFunctions() {
+        return loop.callsOther || (loop.callsLen && !program.lenIsNative());
+    }
+
+    // Roughly how much work evaluating the expression takes.
+    private static int cost(Expr expr) {
+        if (expr instanceof Expr.Call) {
+            int cost = 3 + cost(((Expr.Call) expr).callee);
+            for (Expr argument : ((Expr.Call) expr).arguments) {
+                cost += cost(argument);
+            }
+            return cost;
+        }
+        if (expr instanceof Expr.Get) {
+            return 3 + cost(((Expr.Get) expr).object);
+        }
+        if (expr instanceof Expr.ArrayAccess) {
+            Expr.ArrayAccess access = (Expr.ArrayAccess) expr;
+            return 3 + cost(access.array) + cost(access.index);
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return 1 + cost(binary.left) + cost(binary.right);
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            return 1 + cost(logical.left) + cost(logical.right);
+        }
+        if (expr instanceof Expr.Conditional) {
+            Expr.Conditional conditional = (Expr.Conditional) expr;
+            return 1 + cost(conditional.expr) +
+                    Math.max(cost(conditional.thenBranch), cost(conditional.elseBranch));
+        }
+        if (expr instanceof Expr.Unary) {
+            return 1 + cost(((Expr.Unary) expr).right);
+        }
+        return 0;
+    }
+
+    // Identifies equal expressions, so each is only hoisted once. Only
+    // needs to handle the kinds isInvariant() accepts.
+    private static String key(Expr expr) {
+        // Other literals are tagged so they cannot collide with a variable,
+        // as nil would with one named 'null'. Strings cannot hold quotes.
+        if (expr instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) expr).value;
+            if (value == null) return "#nil";
+            if (value instanceof String) return "\"" + value + "\"";
+            return "#" + value;
+        }
+        if (expr instanceof Expr.This) return "this";
+        if (expr instanceof Expr.Variable) return ((Expr.Variable) expr).name.lexeme;
+        if (expr instanceof Expr.Unary) {
+            Expr.Unary unary = (Expr.Unary) expr;
+            return "(" + unary.operator.lexeme + " " + key(unary.right) + ")";
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return "(" + binary.operator.lexeme + " " + key(binary.left) + " " +
+                    key(binary.right) + ")";
+        }
+        if (expr instanceof Expr.Logical) {
+            Expr.Logical logical = (Expr.Logical) expr;
+            return "(" + logical.operator.lexeme + " " + key(logical.left) + " " +
+                    key(logical.right) + ")";
+        }
+        if (expr instanceof Expr.Conditional) {
+            Expr.Conditional conditional = (Expr.Conditional) expr;
+            return "(? " + key(conditional.expr) + " " + key(conditional.thenBranch) +
+                    " " + key(conditional.elseBranch) + ")";
+        }
+        if (expr instanceof Expr.ArrayAccess) {
+            Expr.ArrayAccess access = (Expr.ArrayAccess) expr;
+            return "([] " + key(access.array) + " " + key(access.index) + ")";
+        }
+        if (expr instanceof Expr.Get) {
+            Expr.Get get = (Expr.Get) expr;
+            return "(. " + key(get.object) + " " + get.name.lexeme + ")";
+        }
+
+        Expr.Call call = (Expr.Call) expr;
+        return "(call " + key(call.callee) + " " + key(call.arguments.get(0)) + ")";
+    }
+
+    private static int line(Expr expr) {
+        if (expr instanceof Expr.Call) return ((Expr.Call) expr).paren.line;
+        if (expr instanceof Expr.Get) return ((Expr.Get) expr).name.line;
+        if (expr instanceof Expr.ArrayAccess) return ((Expr.ArrayAccess) expr).bracket.line;
+        if (expr instanceof Expr.Binary) return ((Expr.Binary) expr).operator.line;
+        if (expr instanceof Expr.Logical) return ((Expr.Logical) expr).operator.line;
+        if (expr instanceof Expr.Unary) return ((Expr.Unary) expr).operator.line;
+        if (expr instanceof Expr.Conditional) return line(((Expr.Conditional) expr).expr);
+        if (expr instanceof Expr.Variable) return ((Expr.Variable) expr).name.line;
+        if (expr instanceof Expr.This) return ((Expr.This) expr).keyword.line;
+        return 0;
+    }
+
+    private List<Stmt> rewriteAll(List<Stmt> statements) {
+        List<Stmt> rewritten = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt result = statement.accept(this);
+            rewritten.add(result);
+            changed |= result != statement;
+        }
+
+        return changed ? rewritten : statements;
+    }
+
+    private List<Expr> rewriteExprs(List<Expr> expressions) {
+        List<Expr> rewritten = new ArrayList<>(expressions.size());
+        boolean changed = false;
+        for (Expr expression : expressions) {
+            Expr result = rewrite(expression);
+            rewritten.add(result);
+            changed |= result != expression;
+        }
+
+        return changed ? rewritten : expressions;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = rewriteAll(stmt.statements);
+        if (statements == stmt.statements) return stmt;
+        return new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    // Function bodies do not run once per iteration, so they are left to
+    // the loops inside them.
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = rewrite(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt thenBranch = stmt.thenBranch.accept(this);
+        Stmt elseBranch = stmt.elseBranch == null ? null : stmt.elseBranch.accept(this);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch &&
+                elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = rewrite(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitImportStmt(Stmt.Import stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExportStmt(Stmt.Export stmt) {
+        Stmt declaration = stmt.declaration.accept(this);
+        if (declaration == stmt.declaration) return stmt;
+        return new Stmt.Export(stmt.keyword, declaration);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+
+        Expr value = rewrite(stmt.value);
+        if (value == stmt.value) return stmt;
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return stmt;
+
+        Expr initializer = rewrite(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+        return new Stmt.Var(stmt.name, initializer);
+    }
+
+    // An inner loop has already had its own invariants hoisted. Those that
+    // are invariant in this loop as well get cached again out here, so they
+    // are computed once rather than once per inner loop.
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = rewrite(stmt.condition);
+        Stmt body = stmt.body.accept(this);
+        if (condition == stmt.condition && body == stmt.body) return stmt;
+        return new Stmt.While(condition, body);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = rewrite(expr.value);
+        if (value == expr.value) return expr;
+        return new Expr.Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = rewrite(expr.callee);
+        List<Expr> arguments = rewriteExprs(expr.arguments);
+        if (callee == expr.callee && arguments == expr.arguments) return expr;
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = rewrite(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitArrayExpr(Expr.Array expr) {
+        List<Expr> elements = rewriteExprs(expr.elements);
+        if (elements == expr.elements) return expr;
+        return new Expr.Array(elements);
+    }
+
+    @Override
+    public Expr visitArrayAccessExpr(Expr.ArrayAccess expr) {
+        Expr array = rewrite(expr.array);
+        Expr index = rewrite(expr.index);
+        if (array == expr.array && index == expr.index) return expr;
+        return new Expr.ArrayAccess(array, expr.bracket, index);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = rewrite(expr.expression);
+        if (expression == expr.expression) return expr;
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = rewrite(expr.left);
+        Expr right = rewrite(expr.right);
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = rewrite(expr.object);
+        Expr value = rewrite(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = rewrite(expr.right);
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitConditionalExpr(Expr.Conditional expr) {
+        Expr condition = rewrite(expr.expr);
+        Expr thenBranch = rewrite(expr.thenBranch);
+        Expr elseBranch = rewrite(expr.elseBranch);
+        if (condition == expr.expr && thenBranch == expr.thenBranch &&
+                elseBranch == expr.elseBranch) {
+            return expr;
+        }
+        return new Expr.Conditional(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+}
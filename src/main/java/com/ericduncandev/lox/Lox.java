@@ -8,28 +8,127 @@ import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 
+import com.ericduncandev.lox.vm.VM;
+
 public class Lox {
+    private enum Engine {
+        INTERPRETER,
+        CLOSURE,
+        VM
+    }
+
     private static final boolean DEBUG = false;
     private static final Interpreter interpreter = new Interpreter(DEBUG);
+    private static final VM vm = new VM(Lox::loadModule, interpreter.output, DEBUG);
+    private static Engine engine = Engine.INTERPRETER;
+    private static boolean dumpAst = false;
+    private static boolean reportHoisting = false;
+    private static TieringPolicy tiering = null;
+    // How many functions --profile reports on.
+    private static int profileTop = 10;
+    private static boolean logTiering = false;
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
 
     public static void main(String[] args) throws IOException {
-        if (args.length > 1) {
-            System.out.println("Usage: jlox [script]");
-            System.exit(64);
-        } else if (args.length == 1) {
-            runFile(args[0]);
-        } else {
-            runPrompt();
+        List<String> scripts = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.equals("--engine=vm")) {
+                engine = Engine.VM;
+            } else if (arg.equals("--engine=closure")) {
+                engine = Engine.CLOSURE;
+            } else if (arg.equals("--engine=tree")) {
+                engine = Engine.INTERPRETER;
+            } else if (arg.equals("--ic-stats")) {
+                InlineCache.trackSites();
+            } else if (arg.equals("--dump-ast")) {
+                dumpAst = true;
+            } else if (arg.equals("--hoist-report")) {
+                reportHoisting = true;
+            } else if (arg.equals("--tiering")) {
+                tiering = TieringPolicy.DEFAULT;
+            } else if (arg.equals("--tiering=eager")) {
+                tiering = TieringPolicy.EAGER;
+            } else if (arg.equals("--profile") || arg.startsWith("--profile=")) {
+                if (arg.startsWith("--profile=")) {
+                    try {
+                        profileTop = Integer.parseInt(arg.substring("--profile=".length()));
+                    } catch (NumberFormatException e) {
+                        usage();
+                    }
+                }
+                interpreter.profiling = true;
+                FunctionProfile.trackFunctions();
+            } else if (arg.equals("--method-handles")) {
+                interpreter.linkCalls = true;
+            } else if (arg.equals("--trace")) {
+                // The tree-walker and closure engine report the same
+                // events; the VM has no listener and traces nothing.
+                interpreter.listener = new TraceLog(interpreter, System.err);
+            } else if (arg.equals("--unbuffered")) {
+                interpreter.output.unbuffered = true;
+            } else if (arg.startsWith("--flush=")) {
+                try {
+                    int bytes = Integer.parseInt(arg.substring("--flush=".length()));
+                    if (bytes < 0) usage();
+                    interpreter.output.flushAt(bytes);
+                } catch (NumberFormatException e) {
+                    usage();
+                }
+            } else if (arg.equals("--tier-log")) {
+                logTiering = true;
+            } else if (arg.startsWith("--")) {
+                usage();
+            } else {
+                scripts.add(arg);
+            }
+        }
+
+        // Keeps what was printed if the JVM exits without going through
+        // one of the flushes below.
+        Runtime.getRuntime().addShutdownHook(new Thread(interpreter.output::flush));
+
+        if (engine == Engine.CLOSURE) {
+            interpreter.compiler = new ClosureCompiler(interpreter);
+        } else if (engine == Engine.INTERPRETER && tiering != null) {
+            interpreter.tiering = new Tiering(interpreter, tiering, logTiering);
+        }
+
+        if (scripts.size() > 1) usage();
+        try {
+            if (scripts.size() == 1) {
+                runFile(scripts.get(0));
+            } else {
+                runPrompt();
+            }
+        } catch (RuntimeException | Error e) {
+            // Print the program's output before the stack trace.
+            interpreter.output.flush();
+            throw e;
         }
     }
 
+    private static void usage() {
+        System.out.println("Usage: jlox [--engine=tree|closure|vm] [--ic-stats] [--dump-ast]");
+        System.out.println("            [--hoist-report] [--tiering[=eager]] [--tier-log]");
+        System.out.println("            [--method-handles] [--profile[=N]] [--unbuffered]");
+        System.out.println("            [--flush=N] [--trace] [script]");
+        System.out.println();
+        System.out.println("--engine=vm rejects programs beyond its bytecode limits: more than");
+        System.out.println("255 locals or 256 closure variables in a function, more than 65535");
+        System.out.println("constants in a function, or jumps and loop bodies over 65535 bytes.");
+        System.exit(64);
+    }
+
     private static void runFile(String path) throws IOException {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
         run(new String(bytes, Charset.defaultCharset()));
+        interpreter.output.flush();
+        InlineCache.printStatistics();
+        FunctionProfile.printProfile(profileTop);
 
         // Indicate an error in exit code
         if (hadError) System.exit(65);
@@ -44,8 +143,12 @@ public class Lox {
         for (;;) {
             hadError = false;
 
+            interpreter.output.flush();
             System.out.print("> ");
-            Scanner scanner = new Scanner(reader.readLine());
+            String line = reader.readLine();
+            if (line == null) break;
+
+            Scanner scanner = new Scanner(line);
             List<Token> tokens = scanner.scanTokens();
 
             Parser parser = new Parser(tokens, DEBUG);
@@ -55,14 +158,23 @@ public class Lox {
             if (hadError) continue;
 
             if (syntax instanceof List) {
-                interpreter.interpret((List<Stmt>)syntax);
+                List<Stmt> statements = analyze((List<Stmt>)syntax);
+                if (statements == null) continue;
+
+                execute(statements);
             } else if (syntax instanceof Expr) {
-                String result = interpreter.interpret((Expr)syntax);
+                new Resolver(interpreter.globals, DEBUG).resolve((Expr)syntax);
+                if (hadError) continue;
+
+                String result = engine == Engine.VM
+                        ? vm.interpret((Expr)syntax)
+                        : interpreter.interpret((Expr)syntax);
                 if (result != null) {
-                    System.out.println("= " + result);
+                    interpreter.output.println("= " + result);
                 }
             }
         }
+        interpreter.output.flush();
     }
 
     private static void run(String source) {
@@ -74,20 +186,67 @@ public class Lox {
         // Stop if there was a syntax error.
         if (hadError) return;
 
-        Resolver resolver = new Resolver(interpreter, DEBUG);
-        resolver.resolve(statements);
+        statements = analyze(statements);
+        if (statements == null) return;
 
-        if (hadError) return;
+        execute(statements);
+    }
+
+    private static void execute(List<Stmt> statements) {
+        if (engine == Engine.VM) {
+            VM.InterpretResult result = vm.interpret(statements);
+            if (result == VM.InterpretResult.COMPILE_ERROR) hadError = true;
+            if (result == VM.InterpretResult.RUNTIME_ERROR) hadRuntimeError = true;
+            return;
+        }
 
         interpreter.interpret(statements);
     }
 
+    // Used by the VM, whose package cannot see the front end.
+    private static List<Stmt> loadModule(String path) throws IOException {
+        byte[] bytes = Files.readAllBytes(Paths.get(path));
+        Scanner scanner = new Scanner(new String(bytes, Charset.defaultCharset()));
+        Parser parser = new Parser(scanner.scanTokens(), DEBUG);
+        List<Stmt> statements = parser.parse();
+        if (hadError) return null;
+
+        return analyze(statements);
+    }
+
+    // Checks a parsed program and optimizes it. Returns null if the
+    // Resolver reported an error.
+    static List<Stmt> analyze(List<Stmt> statements) {
+        new Resolver(interpreter.globals, DEBUG).resolve(statements);
+        if (hadError) return null;
+
+        List<Stmt> optimized = new Optimizer(reportHoisting).optimize(statements);
+        if (dumpAst) {
+            dump("before optimization", statements);
+            dump("after optimization", optimized);
+        }
+
+        // The optimized tree has new nodes and may have lost some scopes,
+        // so bind its variables again. Errors were already reported above.
+        new Resolver(interpreter.globals, false, DEBUG).resolve(optimized);
+        return optimized;
+    }
+
+    private static void dump(String title, List<Stmt> statements) {
+        AstPrinter printer = new AstPrinter();
+        interpreter.output.println("== " + title + " ==");
+        for (Stmt statement : statements) {
+            interpreter.output.println(printer.print(statement));
+        }
+    }
+
     static void error(int line, String message) {
         report(line, "", message);
     }
 
     private static void report(int line, String where,
                                String message) {
+        interpreter.output.flush();
         System.err.println(
                 "[line " + line + "] Error" + where + ": " + message);
         hadError = true;
@@ -102,6 +261,7 @@ public class Lox {
     }
 
     static void runtimeError(RuntimeError error) {
+        interpreter.output.flush();
         System.err.println(error.getMessage() +
                 "\n[line " + error.token.line + "]");
         hadRuntimeError = true;
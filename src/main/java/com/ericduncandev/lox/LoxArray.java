@@ -0,0 +1,64 @@
+package com.ericduncandev.lox;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+// The value of an array literal. While every element is a number, they
+// are kept unboxed in a double[], 8 bytes each instead of a reference and
+// a Double. The first element stored that is not a number moves them all
+// to an Object[] for good.
+//
+// It is a List like any other, so indexing, len, stringify and equality
+// work on it as they do on the ArrayLists it replaces. Numbers read back
+// out of a double[] are boxed again, and compare equal to the originals.
+class LoxArray extends AbstractList<Object> implements RandomAccess {
+    // Exactly one of these is set.
+    private double[] numbers;
+    private Object[] values = null;
+
+    // An array of size elements, all 0 until set.
+    LoxArray(int size) {
+        this.numbers = new double[size];
+    }
+
+    @Override
+    public Object get(int index) {
+        if (numbers != null) return numbers[index];
+        return values[index];
+    }
+
+    @Override
+    public Object set(int index, Object value) {
+        Object previous = get(index);
+        store(index, value);
+        return previous;
+    }
+
+    // set(), without boxing the element it replaces. A rope is flattened
+    // here, so that equals() between lists compares it as a String.
+    void store(int index, Object value) {
+        if (value instanceof Rope) value = value.toString();
+        if (numbers != null) {
+            if (value instanceof Double) {
+                numbers[index] = (double) value;
+                return;
+            }
+            generalize();
+        }
+        values[index] = value;
+    }
+
+    @Override
+    public int size() {
+        if (numbers != null) return numbers.length;
+        return values.length;
+    }
+
+    private void generalize() {
+        values = new Object[numbers.length];
+        for (int i = 0; i < numbers.length; i++) {
+            values[i] = numbers[i];
+        }
+        numbers = null;
+    }
+}
@@ -1,9 +1,36 @@
 package com.ericduncandev.lox;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 interface LoxCallable {
     int arity();
     Object call(Interpreter interpreter, Token callToken, List<Object> arguments);
+
+    // Entry points for a call whose argument count is known, so the caller
+    // does not have to build a list. Callables that can take their
+    // arguments directly override these; the defaults fall back to call().
+    default Object call0(Interpreter interpreter, Token callToken) {
+        return call(interpreter, callToken, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Token callToken, Object a) {
+        return call(interpreter, callToken, Collections.singletonList(a));
+    }
+
+    default Object call2(Interpreter interpreter, Token callToken, Object a, Object b) {
+        return call(interpreter, callToken, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Token callToken,
+                         Object a, Object b, Object c) {
+        return call(interpreter, callToken, Arrays.asList(a, b, c));
+    }
+
+    default Object callN(Interpreter interpreter, Token callToken, Object[] arguments) {
+        return call(interpreter, callToken, Arrays.asList(arguments));
+    }
+
     String toString();
 }
@@ -6,6 +6,10 @@ import java.util.Map;
 class LoxClass extends LoxInstance implements LoxCallable {
     final String name;
     final Map<String, LoxFunction> methods;
+    // Every instance starts out with this shape.
+    final Shape rootShape = new Shape();
+    // The most fields any instance has grown to, used to presize new ones.
+    int expectedFields = 0;
 
     LoxClass(LoxClass metaclass, String name,
              Map<String, LoxFunction> methods) {
@@ -27,18 +31,60 @@ class LoxClass extends LoxInstance implements LoxCallable {
         return name;
     }
 
+    private LoxInstance allocate(Interpreter interpreter) {
+        LoxInstance instance = new LoxInstance(this);
+        if (interpreter.listener != null) interpreter.listener.onAllocation(instance);
+        return instance;
+    }
+
     @Override
     public Object call(Interpreter interpreter, Token callToken,
                        List<Object> arguments) {
-        LoxInstance instance = new LoxInstance(this);
+        LoxInstance instance = allocate(interpreter);
+        LoxFunction initializer = findMethod("init");
+        if (initializer != null) {
+            initializer.invoke(interpreter, instance, callToken, arguments);
+        }
+
+        return instance;
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter, Token callToken) {
+        LoxInstance instance = allocate(interpreter);
         LoxFunction initializer = findMethod("init");
         if (initializer != null) {
-            initializer.bind(instance).call(interpreter, callToken, arguments);
+            initializer.invoke0(interpreter, instance, callToken);
         }
 
         return instance;
     }
 
+    // A class called with arguments has an initializer to take them, and
+    // the initializer returns the new instance.
+    @Override
+    public Object call1(Interpreter interpreter, Token callToken, Object a) {
+        return findMethod("init").invoke1(interpreter, allocate(interpreter), callToken, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Token callToken, Object a, Object b) {
+        return findMethod("init").invoke2(interpreter, allocate(interpreter), callToken, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Token callToken,
+                        Object a, Object b, Object c) {
+        return findMethod("init").invoke3(interpreter, allocate(interpreter), callToken,
+                a, b, c);
+    }
+
+    @Override
+    public Object callN(Interpreter interpreter, Token callToken, Object[] arguments) {
+        return findMethod("init").invokeN(interpreter, allocate(interpreter), callToken,
+                arguments);
+    }
+
     @Override
     public int arity() {
         LoxFunction initializer = findMethod("init");
@@ -7,48 +7,278 @@ class LoxFunction implements LoxCallable {
     final Environment closure;
     final boolean isInitializer;
     final Environment moduleEnvironment;
-    private boolean DEBUG = false;
+    // The body as compiled by ClosureCompiler, or null to walk the AST.
+    final ClosureCompiler.StmtNode compiledBody;
+    // The instance "this" refers to, for a method that has been bound.
+    private final LoxInstance receiver;
 
     LoxFunction(Stmt.Function declaration, Environment closure,
-                boolean isInitializer, Environment moduleEnvironment, boolean DEBUG) {
+                boolean isInitializer, Environment moduleEnvironment) {
+        this(declaration, closure, isInitializer, moduleEnvironment, null);
+    }
+
+    LoxFunction(Stmt.Function declaration, Environment closure,
+                boolean isInitializer, Environment moduleEnvironment,
+                ClosureCompiler.StmtNode compiledBody) {
+        this(declaration, closure, isInitializer, moduleEnvironment, compiledBody, null);
+    }
+
+    private LoxFunction(Stmt.Function declaration, Environment closure,
+                        boolean isInitializer, Environment moduleEnvironment,
+                        ClosureCompiler.StmtNode compiledBody, LoxInstance receiver) {
         this.isInitializer = isInitializer;
         this.closure = closure;
+        closure.closeOver();
         this.declaration = declaration;
         this.moduleEnvironment = moduleEnvironment;
-        this.DEBUG = DEBUG;
+        this.compiledBody = compiledBody;
+        this.receiver = receiver;
     }
 
+    // Only needed when a method is used as a value. Calls made straight
+    // through a property go to the invoke methods with the receiver instead.
     LoxFunction bind(LoxInstance instance) {
-        Environment environment = new Environment(closure, DEBUG);
-        environment.define("this", instance);
-        return new LoxFunction(declaration, environment, isInitializer, moduleEnvironment, DEBUG);
+        return new LoxFunction(declaration, closure, isInitializer, moduleEnvironment,
+                compiledBody, instance);
     }
 
     @Override
     public Object call(Interpreter interpreter, Token callToken, List<Object> arguments) {
-        Environment environment = new Environment(closure, DEBUG);
-        if(DEBUG) {
-            System.out.println("Debug: Function environment: " + environment);
-            System.out.println("Debug: Closure environment: " + closure);
-            System.out.println("Debug: Module environment: " + moduleEnvironment);
-            System.out.println("Debug: Calling function " + declaration.name.lexeme);
+        return invoke(interpreter, receiver, callToken, arguments);
+    }
+
+    @Override
+    public Object call0(Interpreter interpreter, Token callToken) {
+        return invoke0(interpreter, receiver, callToken);
+    }
+
+    @Override
+    public Object call1(Interpreter interpreter, Token callToken, Object a) {
+        return invoke1(interpreter, receiver, callToken, a);
+    }
+
+    @Override
+    public Object call2(Interpreter interpreter, Token callToken, Object a, Object b) {
+        return invoke2(interpreter, receiver, callToken, a, b);
+    }
+
+    @Override
+    public Object call3(Interpreter interpreter, Token callToken,
+                        Object a, Object b, Object c) {
+        return invoke3(interpreter, receiver, callToken, a, b, c);
+    }
+
+    @Override
+    public Object callN(Interpreter interpreter, Token callToken, Object[] arguments) {
+        return invokeN(interpreter, receiver, callToken, arguments);
+    }
+
+    // The invoke methods run the function with "this" set to the given
+    // receiver, or to the one it was bound to if that is null. The
+    // Interpreter calls them directly rather than through call<N>(), which
+    // saves a Java frame per Lox call. The receiver and arguments go
+    // straight into the first slots of a frame on the interpreter's stack.
+    Object invoke(Interpreter interpreter, LoxInstance receiver,
+                  Token callToken, List<Object> arguments) {
+        if (receiver == null) receiver = this.receiver;
+        int frame = interpreter.push(declaration.frameSize);
+        Object[] stack = interpreter.stack;
+        int first = receive(stack, frame, receiver);
+        for (int i = 0; i < arity(); i++) {
+            stack[first + i] = arguments.get(i);
         }
-        for (int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme, arguments.get(i));
-            if (DEBUG) {
-                System.out.println("Debug: Defining parameter " + declaration.params.get(i).lexeme + " with value " + arguments.get(i));
+        return interpreter.keepsProfiles()
+                ? runProfiled(interpreter, receiver, callToken, frame, first)
+                : run(interpreter, receiver, callToken, frame, first);
+    }
+
+    Object invoke0(Interpreter interpreter, LoxInstance receiver, Token callToken) {
+        if (receiver == null) receiver = this.receiver;
+        int frame = interpreter.push(declaration.frameSize);
+        int first = receive(interpreter.stack, frame, receiver);
+        return interpreter.keepsProfiles()
+                ? runProfiled(interpreter, receiver, callToken, frame, first)
+                : run(interpreter, receiver, callToken, frame, first);
+    }
+
+    Object invoke1(Interpreter interpreter, LoxInstance receiver, Token callToken,
+                   Object a) {
+        if (receiver == null) receiver = this.receiver;
+        int frame = interpreter.push(declaration.frameSize);
+        Object[] stack = interpreter.stack;
+        int first = receive(stack, frame, receiver);
+        stack[first] = a;
+        return interpreter.keepsProfiles()
+                ? runProfiled(interpreter, receiver, callToken, frame, first)
+                : run(interpreter, receiver, callToken, frame, first);
+    }
+
+    Object invoke2(Interpreter interpreter, LoxInstance receiver, Token callToken,
+                   Object a, Object b) {
+        if (receiver == null) receiver = this.receiver;
+        int frame = interpreter.push(declaration.frameSize);
+        Object[] stack = interpreter.stack;
+        int first = receive(stack, frame, receiver);
+        stack[first] = a;
+        stack[first + 1] = b;
+        return interpreter.keepsProfiles()
+                ? runProfiled(interpreter, receiver, callToken, frame, first)
+                : run(interpreter, receiver, callToken, frame, first);
+    }
+
+    Object invoke3(Interpreter interpreter, LoxInstance receiver, Token callToken,
+                   Object a, Object b, Object c) {
+        if (receiver == null) receiver = this.receiver;
+        int frame = interpreter.push(declaration.frameSize);
+        Object[] stack = interpreter.stack;
+        int first = receive(stack, frame, receiver);
+        stack[first] = a;
+        stack[first + 1] = b;
+        stack[first + 2] = c;
+        return interpreter.keepsProfiles()
+                ? runProfiled(interpreter, receiver, callToken, frame, first)
+                : run(interpreter, receiver, callToken, frame, first);
+    }
+
+    Object invokeN(Interpreter interpreter, LoxInstance receiver, Token callToken,
+                   Object[] arguments) {
+        if (receiver == null) receiver = this.receiver;
+        int frame = interpreter.push(declaration.frameSize);
+        int first = receive(interpreter.stack, frame, receiver);
+        System.arraycopy(arguments, 0, interpreter.stack, first, arguments.length);
+        return interpreter.keepsProfiles()
+                ? runProfiled(interpreter, receiver, callToken, frame, first)
+                : run(interpreter, receiver, callToken, frame, first);
+    }
+
+    // Puts the receiver, if any, in the frame's slot 0. Returns where the
+    // arguments go.
+    private static int receive(Object[] stack, int frame, LoxInstance receiver) {
+        if (receiver == null) return frame;
+        stack[frame] = receiver;
+        return frame + 1;
+    }
+
+    // Runs the body with frame as the current frame. first is where its
+    // arguments start. Without --tiering or --profile; see runProfiled().
+    private Object run(Interpreter interpreter, LoxInstance receiver, Token callToken,
+                       int frame, int first) {
+        Environment environment = environmentFor(interpreter.stack, frame);
+        int callerBase = interpreter.base;
+        interpreter.base = frame;
+        ExecutionListener listener = interpreter.listener;
+        if (listener != null) listener.onCall(this, interpreter.stack, first);
+
+        Completion completion;
+        try {
+            if (compiledBody != null) {
+                completion = compiledBody.execute(environment);
+            } else {
+                // What the Interpreter would do to run a block, walked here
+                // to keep down the Java frames each Lox call takes. A
+                // runtime error leaves the environment for interpret() to
+                // restore.
+                Environment previous = interpreter.environment;
+                interpreter.environment = environment;
+                completion = Completion.NORMAL;
+                for (Stmt statement : declaration.body) {
+                    completion = statement.accept(interpreter);
+                    if (completion != Completion.NORMAL) break;
+                }
+                interpreter.environment = previous;
             }
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(callToken, "Stack overflow.");
+        }
+        interpreter.pop(callerBase);
+        return finish(interpreter, receiver, completion);
+    }
+
+    // run() with the function's profile kept up to date, for --tiering and
+    // --profile, and the tiered body run once the function is hot. Kept
+    // apart so the plain path's frame stays small, and inlined for the
+    // same reason as there.
+    private Object runProfiled(Interpreter interpreter, LoxInstance receiver,
+                               Token callToken, int frame, int first) {
+        Environment environment = environmentFor(interpreter.stack, frame);
+        int callerBase = interpreter.base;
+        interpreter.base = frame;
+        ExecutionListener listener = interpreter.listener;
+        if (listener != null) listener.onCall(this, interpreter.stack, first);
+
+        FunctionProfile profile = FunctionProfile.of(declaration);
+        profile.invocations++;
+        long start = 0;
+        long outerCalleeNanos = 0;
+        if (interpreter.profiling) {
+            profile.recordArguments(interpreter.stack, first);
+            outerCalleeNanos = interpreter.calleeNanos;
+            interpreter.calleeNanos = 0;
+            start = System.nanoTime();
         }
 
+        Completion completion;
         try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch (Return returnValue) {
-            if (isInitializer) return closure.getAt(0, "this");
-            return returnValue.value;
+            ClosureCompiler.StmtNode body = compiledBody;
+            if (body == null && interpreter.tiering != null) {
+                body = interpreter.tiering.enter(declaration);
+            }
+
+            if (body != null) {
+                completion = body.execute(environment);
+            } else {
+                // Loops in the body charge their back edges to the
+                // running function.
+                Environment previous = interpreter.environment;
+                Stmt.Function caller = interpreter.running;
+                interpreter.environment = environment;
+                interpreter.running = declaration;
+                completion = Completion.NORMAL;
+                for (Stmt statement : declaration.body) {
+                    completion = statement.accept(interpreter);
+                    if (completion != Completion.NORMAL) break;
+                }
+                interpreter.running = caller;
+                interpreter.environment = previous;
+            }
+        } catch (StackOverflowError error) {
+            throw new RuntimeError(callToken, "Stack overflow.");
+        } finally {
+            if (interpreter.profiling) {
+                long elapsed = System.nanoTime() - start;
+                profile.selfNanos += elapsed - interpreter.calleeNanos;
+                interpreter.calleeNanos = outerCalleeNanos + elapsed;
+            }
         }
+        interpreter.pop(callerBase);
+        return finish(interpreter, receiver, completion);
+    }
+
+    // The environment the body runs in: the closure, or one inside it for
+    // the locals that closures capture, starting with the receiver and
+    // parameters they capture.
+    private Environment environmentFor(Object[] stack, int frame) {
+        if (declaration.locals == 0) return closure;
+
+        int[] captured = declaration.capturedSlots;
+        Object[] slots = new Object[declaration.locals];
+        for (int i = 0; i < captured.length; i++) {
+            slots[i] = stack[frame + captured[i]];
+        }
+        return new Environment(closure, slots, declaration.locals);
+    }
 
-        if (isInitializer) return closure.getAt(0, "this");
-        return null;
+    private Object finish(Interpreter interpreter, LoxInstance receiver,
+                          Completion completion) {
+        Object result = null;
+        if (isInitializer) {
+            result = receiver;
+        } else if (completion == Completion.RETURN) {
+            result = interpreter.returnValue;
+            interpreter.returnValue = null;
+        }
+        if (interpreter.listener != null) interpreter.listener.onReturn(this, result);
+        return result;
     }
 
     public boolean isGetter() {
@@ -57,6 +287,7 @@ class LoxFunction implements LoxCallable {
 
     @Override
     public int arity() {
+        if (isGetter()) return 0;
         return declaration.params.size();
     }
 
@@ -1,19 +1,33 @@
 package com.ericduncandev.lox;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
 class LoxInstance {
+    private static final Object[] NO_FIELDS = new Object[0];
+    // Classes are instances of a metaclass, but the metaclass itself has
+    // no class to take a root shape from.
+    private static final Shape METACLASS_SHAPE = new Shape();
+
     private LoxClass klass;
-    private final Map<String, Object> fields = new HashMap<>();
+    private Shape shape;
+    private Object[] fields;
 
     LoxInstance(LoxClass klass) {
         this.klass = klass;
+        if (klass == null) {
+            this.shape = METACLASS_SHAPE;
+            this.fields = NO_FIELDS;
+        } else {
+            this.shape = klass.rootShape;
+            this.fields = klass.expectedFields == 0
+                    ? NO_FIELDS : new Object[klass.expectedFields];
+        }
     }
 
     Object get(Token name) {
-        if (fields.containsKey(name.lexeme)) {
-            return fields.get(name.lexeme);
+        int index = shape.indexOf(name.lexeme);
+        if (index >= 0) {
+            return fields[index];
         }
 
         LoxFunction method = klass.findMethod(name.lexeme);
@@ -24,7 +38,43 @@ class LoxInstance {
     }
 
     void set(Token name, Object value) {
-        fields.put(name.lexeme, value);
+        int index = shape.indexOf(name.lexeme);
+        if (index < 0) {
+            Shape next = shape.withField(name.lexeme);
+            setField(next.fieldCount() - 1, next, value);
+            return;
+        }
+        fields[index] = value;
+    }
+
+    Shape shape() {
+        return shape;
+    }
+
+    Object getField(int slot) {
+        return fields[slot];
+    }
+
+    // Stores into a slot of the given shape, which is either the current
+    // one or the transition that adds the field at that slot.
+    void setField(int slot, Shape next, Object value) {
+        if (next != shape) {
+            shape = next;
+            if (slot == fields.length) {
+                fields = Arrays.copyOf(fields, Math.max(4, fields.length * 2));
+            }
+            // Presize the next instance of this class for the fields
+            // this one has grown to.
+            if (klass != null && shape.fieldCount() > klass.expectedFields) {
+                klass.expectedFields = shape.fieldCount();
+            }
+        }
+        fields[slot] = value;
+    }
+
+    // Not named findMethod: LoxClass has its own for the methods it holds.
+    LoxFunction methodOfClass(String name) {
+        return klass.findMethod(name);
     }
 
     @Override
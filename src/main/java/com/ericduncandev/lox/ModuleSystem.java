@@ -11,30 +11,28 @@ import java.util.Map;
 public class ModuleSystem {
     private final Map<String, Environment> modules = new HashMap<>();
     private final Interpreter interpreter;
-    private boolean DEBUG = false;
 
-    public ModuleSystem(Interpreter interpreter, boolean DEBUG) {
+    public ModuleSystem(Interpreter interpreter) {
         this.interpreter = interpreter;
-        this.DEBUG = DEBUG;
     }
 
     public void importModule(String path) throws IOException {
         if (!modules.containsKey(path)) {
+            if (interpreter.listener != null) interpreter.listener.onModuleLoad(path);
+
             // Load and parse the file
             String source = new String(Files.readAllBytes(Paths.get(path)), Charset.defaultCharset());
             Scanner scanner = new Scanner(source);
             List<Token> tokens = scanner.scanTokens();
             Parser parser = new Parser(tokens, false);
-            List<Stmt> statements = parser.parse();
+            List<Stmt> statements = Lox.analyze(parser.parse());
+            if (statements == null) return;
 
             // Create a new environment for this module
-            Environment moduleEnv = new Environment(interpreter.globals, DEBUG);
-
-            Resolver resolver = new Resolver(interpreter, DEBUG);
-            resolver.resolve(statements);
+            Environment moduleEnv = new Environment(interpreter.globals);
 
             // Execute the module in its own environment
-            interpreter.interpret(statements);
+            interpreter.interpretModule(statements);
 
 
             // Store the module's environment
@@ -52,7 +50,7 @@ public class ModuleSystem {
                         function.closure,
                         function.isInitializer,
                         moduleEnv, // Pass the module's environment
-                        DEBUG
+                        function.compiledBody
                 );
                 interpreter.defineVariable(entry.getKey(), newFunction);
             }
@@ -0,0 +1,385 @@
+package com.ericduncandev.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Simplifies a resolved program before it runs: folds operators whose
+// operands are constants, drops branches and loops whose conditions are
+// constant, strips grouping parentheses and hoists loop invariants (see
+// LoopInvariants). Subtrees that do not change are returned as they are.
+//
+// Anything that would fail at run time, like dividing by zero or adding a
+// number to nil, is left alone so the error is still reported when (and
+// only if) the code actually runs.
+class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    // Returned by fold() when an operation has to wait for run time.
+    private static final Object NOT_CONSTANT = new Object();
+
+    private final boolean reportHoisting;
+    private LoopInvariants invariants;
+
+    Optimizer(boolean reportHoisting) {
+        this.reportHoisting = reportHoisting;
+    }
+
+    List<Stmt> optimize(List<Stmt> program) {
+        invariants = new LoopInvariants(SideEffects.of(program), reportHoisting);
+        return optimizeAll(program, false);
+    }
+
+    private List<Stmt> optimizeAll(List<Stmt> statements) {
+        return optimizeAll(statements, true);
+    }
+
+    // inScope is false for the top level, which must not gain globals.
+    private List<Stmt> optimizeAll(List<Stmt> statements, boolean inScope) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        boolean changed = false;
+        for (Stmt statement : statements) {
+            Stmt result = optimize(statement);
+            if (inScope && statement instanceof Stmt.While &&
+                    result instanceof Stmt.Block) {
+                // A loop that had invariants hoisted. Declaring them in this
+                // scope saves the loop body a level of environments.
+                optimized.addAll(((Stmt.Block) result).statements);
+            } else if (result != null) {
+                optimized.add(result);
+            }
+            changed |= result != statement;
+        }
+
+        return changed ? optimized : statements;
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    // Null when the statement has been optimized away entirely.
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    // For the places the grammar requires a statement.
+    private Stmt optimizeOrEmpty(Stmt stmt) {
+        Stmt result = optimize(stmt);
+        if (result == null) return new Stmt.Block(new ArrayList<>());
+        return result;
+    }
+
+    private List<Expr> optimizeExprs(List<Expr> expressions) {
+        List<Expr> optimized = new ArrayList<>(expressions.size());
+        boolean changed = false;
+        for (Expr expression : expressions) {
+            Expr result = optimize(expression);
+            optimized.add(result);
+            changed |= result != expression;
+        }
+
+        return changed ? optimized : expressions;
+    }
+
+    private List<Stmt.Function> optimizeFunctions(List<Stmt.Function> functions) {
+        List<Stmt.Function> optimized = new ArrayList<>(functions.size());
+        boolean changed = false;
+        for (Stmt.Function function : functions) {
+            Stmt.Function result = (Stmt.Function) optimize(function);
+            optimized.add(result);
+            changed |= result != function;
+        }
+
+        return changed ? optimized : functions;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        List<Stmt> statements = optimizeAll(stmt.statements);
+        if (statements == stmt.statements) return stmt;
+        return new Stmt.Block(statements);
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitClassStmt(Stmt.Class stmt) {
+        List<Stmt.Function> methods = optimizeFunctions(stmt.methods);
+        List<Stmt.Function> classMethods = optimizeFunctions(stmt.classMethods);
+        if (methods == stmt.methods && classMethods == stmt.classMethods) return stmt;
+        return new Stmt.Class(stmt.name, methods, classMethods);
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        List<Stmt> body = optimizeAll(stmt.body);
+        if (body == stmt.body) return stmt;
+        return new Stmt.Function(stmt.name, stmt.params, body);
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal) {
+            if (isTruthy(((Expr.Literal) condition).value)) {
+                return optimize(stmt.thenBranch);
+            }
+            return stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        }
+
+        Stmt thenBranch = optimizeOrEmpty(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        if (condition == stmt.condition && thenBranch == stmt.thenBranch &&
+                elseBranch == stmt.elseBranch) {
+            return stmt;
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitPrintStmt(Stmt.Print stmt) {
+        Expr expression = optimize(stmt.expression);
+        if (expression == stmt.expression) return stmt;
+        return new Stmt.Print(expression);
+    }
+
+    @Override
+    public Stmt visitImportStmt(Stmt.Import stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitExportStmt(Stmt.Export stmt) {
+        Stmt declaration = optimize(stmt.declaration);
+        if (declaration == stmt.declaration) return stmt;
+        return new Stmt.Export(stmt.keyword, declaration);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value == null) return stmt;
+
+        Expr value = optimize(stmt.value);
+        if (value == stmt.value) return stmt;
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer == null) return stmt;
+
+        Expr initializer = optimize(stmt.initializer);
+        if (initializer == stmt.initializer) return stmt;
+        return new Stmt.Var(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        if (condition instanceof Expr.Literal &&
+                !isTruthy(((Expr.Literal) condition).value)) {
+            return null;
+        }
+
+        Stmt body = optimizeOrEmpty(stmt.body);
+        Stmt.While loop = stmt;
+        if (condition != stmt.condition || body != stmt.body) {
+            loop = new Stmt.While(condition, body);
+        }
+        return invariants.hoist(loop);
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        Expr value = optimize(expr.value);
+        if (value == expr.value) return expr;
+        return new Expr.Assign(expr.name, value);
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        if (left instanceof Expr.Literal && right instanceof Expr.Literal) {
+            Object value = fold(expr.operator.type,
+                    ((Expr.Literal) left).value, ((Expr.Literal) right).value);
+            if (value != NOT_CONSTANT) return new Expr.Literal(value);
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    // Mirrors Interpreter.visitBinaryExpr() for the cases that cannot fail.
+    private static Object fold(TokenType operator, Object left, Object right) {
+        switch (operator) {
+            case EQUAL_EQUAL:
+                return isEqual(left, right);
+            case BANG_EQUAL:
+                return !isEqual(left, right);
+            case PLUS:
+                if (left instanceof String && right instanceof String) {
+                    return (String) left + (String) right;
+                }
+                break;
+        }
+
+        if (!(left instanceof Double) || !(right instanceof Double)) {
+            return NOT_CONSTANT;
+        }
+
+        double a = (double) left;
+        double b = (double) right;
+        switch (operator) {
+            case PLUS: return a + b;
+            case MINUS: return a - b;
+            case STAR: return a * b;
+            case SLASH:
+                if (b == 0) return NOT_CONSTANT;
+                return a / b;
+            case PERCENT: return a % b;
+            case GREATER: return a > b;
+            case GREATER_EQUAL: return a >= b;
+            case LESS: return a < b;
+            case LESS_EQUAL: return a <= b;
+            case BAR: return (double) ((int) a | (int) b);
+            case XOR: return (double) ((int) a ^ (int) b);
+        }
+
+        return NOT_CONSTANT;
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = optimizeExprs(expr.arguments);
+        if (callee == expr.callee && arguments == expr.arguments) return expr;
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitGetExpr(Expr.Get expr) {
+        Expr object = optimize(expr.object);
+        if (object == expr.object) return expr;
+        return new Expr.Get(object, expr.name);
+    }
+
+    @Override
+    public Expr visitArrayExpr(Expr.Array expr) {
+        List<Expr> elements = optimizeExprs(expr.elements);
+        if (elements == expr.elements) return expr;
+        return new Expr.Array(elements);
+    }
+
+    @Override
+    public Expr visitArrayAccessExpr(Expr.ArrayAccess expr) {
+        Expr array = optimize(expr.array);
+        Expr index = optimize(expr.index);
+        if (array == expr.array && index == expr.index) return expr;
+        return new Expr.ArrayAccess(array, expr.bracket, index);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        // Parentheses only matter to the parser.
+        return optimize(expr.expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+
+        // A constant left operand decides which operand is the result.
+        if (left instanceof Expr.Literal) {
+            boolean truthy = isTruthy(((Expr.Literal) left).value);
+            if (expr.operator.type == TokenType.OR) return truthy ? left : right;
+            return truthy ? right : left;
+        }
+
+        if (left == expr.left && right == expr.right) return expr;
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitSetExpr(Expr.Set expr) {
+        Expr object = optimize(expr.object);
+        Expr value = optimize(expr.value);
+        if (object == expr.object && value == expr.value) return expr;
+        return new Expr.Set(object, expr.name, value);
+    }
+
+    @Override
+    public Expr visitThisExpr(Expr.This expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+
+        if (right instanceof Expr.Literal) {
+            Object value = ((Expr.Literal) right).value;
+            if (expr.operator.type == TokenType.BANG) {
+                return new Expr.Literal(!isTruthy(value));
+            }
+            if (expr.operator.type == TokenType.MINUS && value instanceof Double) {
+                return new Expr.Literal(-(double) value);
+            }
+        }
+
+        if (right == expr.right) return expr;
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitConditionalExpr(Expr.Conditional expr) {
+        Expr condition = optimize(expr.expr);
+        if (condition instanceof Expr.Literal) {
+            return isTruthy(((Expr.Literal) condition).value)
+                    ? optimize(expr.thenBranch)
+                    : optimize(expr.elseBranch);
+        }
+
+        Expr thenBranch = optimize(expr.thenBranch);
+        Expr elseBranch = optimize(expr.elseBranch);
+        if (condition == expr.expr && thenBranch == expr.thenBranch &&
+                elseBranch == expr.elseBranch) {
+            return expr;
+        }
+        return new Expr.Conditional(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    // The same rules as the Interpreter's, for the values a literal can hold.
+    private static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean) object;
+        return true;
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+
+        return a.equals(b);
+    }
+}
@@ -0,0 +1,94 @@
+package com.ericduncandev.lox;
+
+import com.ericduncandev.lox.vm.Output;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+// Where print statements go. System.out takes a lock and flushes through
+// its encoder on every println, which adds up for scripts that print a
+// lot. Instead, lines are encoded into one large buffer that is written
+// to stdout's FileChannel when it fills up.
+//
+// The buffer is written once it holds the threshold's worth of bytes,
+// 64KB unless --flush=N sets it; --flush=0 writes every line as it comes.
+// Whatever the threshold, it is also flushed when the program finishes,
+// before the REPL prompts, before an error is reported and before an
+// uncaught exception, so output still comes before whatever follows it
+// on the console. With --unbuffered, lines are printed through
+// System.out as they come, as they used to be.
+class OutputSink implements Output {
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final CharBuffer LINE_SEPARATOR =
+            CharBuffer.wrap(System.lineSeparator()).asReadOnlyBuffer();
+
+    private final FileChannel channel =
+            new FileOutputStream(FileDescriptor.out).getChannel();
+    private ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private int threshold = BUFFER_SIZE;
+    // The charset System.out uses, replacing what it cannot encode the
+    // same way.
+    private final CharsetEncoder encoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    boolean unbuffered = false;
+    // Set once stdout has gone away, e.g. a closed pipe. Like System.out,
+    // the sink then drops what it is given rather than failing the script.
+    private boolean failed = false;
+
+    @Override
+    public void println(String line) {
+        if (unbuffered) {
+            flush();
+            System.out.println(line);
+            return;
+        }
+
+        encode(CharBuffer.wrap(line));
+        encode(LINE_SEPARATOR.duplicate());
+        if (buffer.position() >= threshold) write();
+    }
+
+    // Writes the buffer out whenever it holds at least bytes.
+    void flushAt(int bytes) {
+        flush();
+        threshold = bytes;
+        if (bytes > buffer.capacity()) buffer = ByteBuffer.allocateDirect(bytes);
+    }
+
+    private void encode(CharBuffer chars) {
+        encoder.reset();
+        while (encoder.encode(chars, buffer, true).isOverflow()) {
+            write();
+        }
+        while (encoder.flush(buffer) == CoderResult.OVERFLOW) {
+            write();
+        }
+    }
+
+    @Override
+    public void flush() {
+        if (buffer.position() > 0) write();
+    }
+
+    private void write() {
+        buffer.flip();
+        try {
+            while (buffer.hasRemaining() && !failed) {
+                channel.write(buffer);
+            }
+        } catch (IOException e) {
+            failed = true;
+        }
+        buffer.clear();
+    }
+}
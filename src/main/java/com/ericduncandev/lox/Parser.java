@@ -7,7 +7,9 @@ import java.util.List;
 import static com.ericduncandev.lox.TokenType.*;
 
 class Parser {
-    private static class ParseError extends RuntimeException {}
+    private static class ParseError extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
 
     private final List<Token> tokens;
     private int current = 0;
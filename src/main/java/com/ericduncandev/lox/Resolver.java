@@ -1,18 +1,43 @@
 package com.ericduncandev.lox;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Stack;
 
+// Binds every variable to where it lives at runtime. A global gets a slot
+// in the global environment. A local gets a slot in its function's frame
+// on the Interpreter's value stack, unless a function declared inside its
+// scope refers to it. Such a captured local has to outlive the call, so
+// it goes in a slot of an Environment made for its scope instead, which
+// closures keep alive. Only scopes with captured locals get one, and the
+// depth of a captured variable counts those alone.
+//
+// Whether a local is captured is only known once its scope has been
+// resolved, so each scope binds its variables' declarations and uses
+// when it ends.
 class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
-    private final Interpreter interpreter;
-    private final Stack<Map<String, Variable>> scopes = new Stack<>();
+    private final Stack<Scope> scopes = new Stack<>();
+    // The frame locals are being numbered in: that of the function being
+    // resolved, or of the outermost block around top-level code.
+    private Frame frame = null;
+    // Hands out the slots for global variables.
+    private final Environment globals;
     private FunctionType currentFunction = FunctionType.NONE;
-    private final boolean DEBUG = false;
+    // Off when re-resolving optimized code, where dropping a dead branch
+    // can leave a variable that was read only there without a reader.
+    private final boolean checkUnused;
+    private final boolean DEBUG;
 
-    Resolver(Interpreter interpreter, boolean DEBUG) {
-        this.interpreter = interpreter;
+    Resolver(Environment globals, boolean DEBUG) {
+        this(globals, true, DEBUG);
+    }
+
+    Resolver(Environment globals, boolean checkUnused, boolean DEBUG) {
+        this.globals = globals;
+        this.checkUnused = checkUnused;
+        this.DEBUG = DEBUG;
     }
 
     private enum FunctionType {
@@ -29,13 +54,57 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private ClassType currentClass = ClassType.NONE;
 
+    private static class Frame {
+        // The next free slot, and the most ever in use.
+        int next = 0;
+        int size = 0;
+
+        int allocate() {
+            size = Math.max(size, next + 1);
+            return next++;
+        }
+    }
+
+    private static class Scope {
+        // In order of declaration.
+        final Map<String, Variable> variables = new LinkedHashMap<>();
+        final boolean isFunction;
+        // Set when the scope ends: how many of its variables are captured,
+        // which is the size of its environment.
+        int locals = 0;
+
+        Scope(boolean isFunction) {
+            this.isFunction = isFunction;
+        }
+    }
+
     private static class Variable {
         final Token name;
+        // Its slot in the frame, and in its scope's environment if captured.
+        final int slot;
+        int environmentSlot;
         VariableState state;
+        boolean captured = false;
+        // The statement that declares it; null for parameters and 'this'.
+        Stmt declaration = null;
+        final List<Use> uses = new ArrayList<>();
 
-        private Variable(Token name, VariableState state) {
+        private Variable(Token name, VariableState state, int slot) {
             this.name = name;
             this.state = state;
+            this.slot = slot;
+        }
+    }
+
+    // An expression referring to a variable, and the scopes between the
+    // two, innermost last.
+    private static class Use {
+        final Expr expr;
+        final List<Scope> crossed;
+
+        Use(Expr expr, List<Scope> crossed) {
+            this.expr = expr;
+            this.crossed = crossed;
         }
     }
 
@@ -51,30 +120,56 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
     }
 
-    private void resolve(Expr expr) {
+    void resolve(Expr expr) {
         expr.accept(this);
     }
 
-    private void beginScope() {
-        scopes.push(new HashMap<String, Variable>());
+    private void beginScope(boolean isFunction) {
+        scopes.push(new Scope(isFunction));
     }
 
-    private void endScope() {
-        Map<String, Variable> scope = scopes.pop();
+    private Scope endScope() {
+        Scope scope = scopes.pop();
+        for (Variable variable : scope.variables.values()) {
+            if (variable.captured) variable.environmentSlot = scope.locals++;
+        }
+        for (Variable variable : scope.variables.values()) {
+            bindDeclaration(variable);
+            for (Use use : variable.uses) {
+                bindUse(variable, use);
+            }
+        }
+        // The frame slots of the scope's variables are free for the next.
+        frame.next -= scope.variables.size();
 
-        for (Map.Entry<String, Variable> entry : scope.entrySet()) {
-            if (entry.getValue().state == VariableState.DEFINED) {
-                Lox.error(entry.getValue().name, "Local variable is not used.");
+        if (checkUnused) {
+            for (Variable variable : scope.variables.values()) {
+                if (variable.state == VariableState.DEFINED) {
+                    Lox.error(variable.name, "Local variable is not used.");
+                }
             }
         }
+        return scope;
     }
 
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
-        beginScope();
+        // Top-level code runs in no function, so a block around it brings
+        // a frame for its locals.
+        boolean outermost = frame == null;
+        if (outermost) frame = new Frame();
+
+        beginScope(false);
         resolve(stmt.statements);
-        endScope();
+        // A block with no captured locals runs without an environment.
+        stmt.locals = endScope().locals;
+
+        stmt.frameSize = 0;
+        if (outermost) {
+            stmt.frameSize = frame.size;
+            frame = null;
+        }
         return null;
     }
 
@@ -84,12 +179,9 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         ClassType enclosingClass = currentClass;
         currentClass = ClassType.CLASS;
 
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
 
-        beginScope();
-        scopes.peek().put("this", new Variable(stmt.name, VariableState.DECLARED));
-
         for (Stmt.Function method : stmt.methods) {
             FunctionType declaration = FunctionType.METHOD;
             if (method.name.lexeme.equals("init")) {
@@ -98,13 +190,10 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
             resolveFunction(method, declaration);
         }
 
+        // Class methods receive the class object as "this".
         for (Stmt.Function method : stmt.classMethods) {
-            beginScope();
-            scopes.peek().put("this", new Variable(stmt.name, VariableState.DECLARED));
             resolveFunction(method, FunctionType.METHOD);
-            endScope();
         }
-        endScope();
 
         currentClass = enclosingClass;
 
@@ -124,7 +213,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitFunctionStmt(Stmt.Function stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         define(stmt.name);
 
         resolveFunction(stmt, FunctionType.FUNCTION);
@@ -176,7 +265,7 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitVarStmt(Stmt.Var stmt) {
-        declare(stmt.name);
+        declare(stmt.name, stmt);
         if (stmt.initializer != null) {
             resolve(stmt.initializer);
         }
@@ -292,8 +381,8 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVariableExpr(Expr.Variable expr) {
         if (!scopes.isEmpty() &&
-                scopes.peek().containsKey(expr.name.lexeme) &&
-                scopes.peek().get(expr.name.lexeme).state == VariableState.DECLARED) {
+                scopes.peek().variables.containsKey(expr.name.lexeme) &&
+                scopes.peek().variables.get(expr.name.lexeme).state == VariableState.DECLARED) {
             Lox.error(expr.name,
                     "Can't read local variable in its own initializer.");
         }
@@ -302,37 +391,114 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
-    private void declare(Token name) {
-        if (scopes.isEmpty()) return;
+    // Declares a local, or does nothing but mark declaration as global at
+    // the top level.
+    private void declare(Token name, Stmt declaration) {
+        if (scopes.isEmpty()) {
+            bindDeclaration(declaration, true, false, 0);
+            return;
+        }
 
-        Map<String, Variable> scope = scopes.peek();
+        Map<String, Variable> scope = scopes.peek().variables;
         if (scope.containsKey(name.lexeme)) {
             Lox.error(name,
                     "Already variable with this name in this scope.");
         }
 
-        scope.put(name.lexeme, new Variable(name, VariableState.DECLARED));
+        Variable variable = new Variable(name, VariableState.DECLARED, frame.allocate());
+        variable.declaration = declaration;
+        scope.put(name.lexeme, variable);
     }
 
     private void define(Token name) {
         if (scopes.isEmpty()) return;
-        scopes.peek().get(name.lexeme).state = VariableState.DEFINED;
+        scopes.peek().variables.get(name.lexeme).state = VariableState.DEFINED;
     }
 
     private void resolveLocal(Expr expr, Token name, boolean isRead) {
         for (int i = scopes.size() - 1; i >= 0; i--) {
-            if (scopes.get(i).containsKey(name.lexeme)) {
-                interpreter.resolve(expr, scopes.size() - 1 - i);
+            Variable variable = scopes.get(i).variables.get(name.lexeme);
+            if (variable != null) {
+                List<Scope> crossed = new ArrayList<>(scopes.subList(i + 1, scopes.size()));
+                for (Scope scope : crossed) {
+                    if (scope.isFunction) variable.captured = true;
+                }
+                variable.uses.add(new Use(expr, crossed));
 
                 // Mark it used.
                 if (isRead) {
-                    scopes.get(i).get(name.lexeme).state = VariableState.READ;
+                    variable.state = VariableState.READ;
                 }
                 return;
             }
         }
 
         // Not found. Assume it is global.
+        bind(expr, true, false, 0, globals.globalSlot(name.lexeme));
+    }
+
+    private void bindDeclaration(Variable variable) {
+        if (variable.declaration == null) return;
+        bindDeclaration(variable.declaration, false, variable.captured,
+                variable.captured ? variable.environmentSlot : variable.slot);
+    }
+
+    // A captured variable is found by counting the environments between
+    // the use and its scope; the scopes without one are skipped.
+    private void bindUse(Variable variable, Use use) {
+        if (!variable.captured) {
+            bind(use.expr, false, false, 0, variable.slot);
+            return;
+        }
+
+        int depth = 0;
+        for (Scope scope : use.crossed) {
+            if (scope.locals > 0) depth++;
+        }
+        bind(use.expr, false, true, depth, variable.environmentSlot);
+    }
+
+    // Records where a variable lives on the node that refers to it.
+    private void bind(Expr expr, boolean isGlobal, boolean captured, int depth, int slot) {
+        if (expr instanceof Expr.Variable) {
+            Expr.Variable variable = (Expr.Variable) expr;
+            variable.isGlobal = isGlobal;
+            variable.captured = captured;
+            variable.depth = depth;
+            variable.slot = slot;
+        } else if (expr instanceof Expr.Assign) {
+            Expr.Assign assign = (Expr.Assign) expr;
+            assign.isGlobal = isGlobal;
+            assign.captured = captured;
+            assign.depth = depth;
+            assign.slot = slot;
+        } else if (expr instanceof Expr.This) {
+            Expr.This thisExpr = (Expr.This) expr;
+            thisExpr.isGlobal = isGlobal;
+            thisExpr.captured = captured;
+            thisExpr.depth = depth;
+            thisExpr.slot = slot;
+        }
+    }
+
+    // Records where a declaration puts the variable it defines.
+    private void bindDeclaration(Stmt stmt, boolean isGlobal, boolean captured, int slot) {
+        if (stmt instanceof Stmt.Var) {
+            Stmt.Var var = (Stmt.Var) stmt;
+            var.isGlobal = isGlobal;
+            var.captured = captured;
+            var.slot = slot;
+        } else if (stmt instanceof Stmt.Function) {
+            Stmt.Function function = (Stmt.Function) stmt;
+            function.isGlobal = isGlobal;
+            function.captured = captured;
+            function.slot = slot;
+        } else if (stmt instanceof Stmt.Class) {
+            Stmt.Class klass = (Stmt.Class) stmt;
+            klass.isGlobal = isGlobal;
+            klass.captured = captured;
+            klass.slot = slot;
+        }
     }
 
     private void resolve(Stmt stmt) {
@@ -344,15 +510,41 @@ class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private void resolveFunction(Stmt.Function function, FunctionType type) {
         FunctionType enclosingFunction = currentFunction;
         currentFunction = type;
-
-        beginScope();
-        for (Token param : function.params) {
-            declare(param);
-            define(param);
+        Frame enclosingFrame = frame;
+        frame = new Frame();
+
+        beginScope(true);
+        // A method's receiver is passed in slot 0 of its own frame, ahead
+        // of the parameters.
+        if (type == FunctionType.METHOD || type == FunctionType.INITIALIZER) {
+            scopes.peek().variables.put("this",
+                    new Variable(function.name, VariableState.DECLARED, frame.allocate()));
+        }
+        if (function.params != null) {
+            for (Token param : function.params) {
+                declare(param, null);
+                define(param);
+            }
         }
         resolve(function.body);
-        endScope();
+        Scope scope = endScope();
+
+        // Lets a call reserve the whole frame, receiver, parameters and
+        // body locals alike, before it starts.
+        function.frameSize = frame.size;
+        // The receiver and parameters closures capture are declared first,
+        // so they take the first slots of the function's environment.
+        function.locals = scope.locals;
+        List<Integer> captured = new ArrayList<>();
+        for (Variable variable : scope.variables.values()) {
+            if (variable.declaration == null && variable.captured) captured.add(variable.slot);
+        }
+        function.capturedSlots = new int[captured.size()];
+        for (int i = 0; i < captured.size(); i++) {
+            function.capturedSlots[i] = captured.get(i);
+        }
 
+        frame = enclosingFrame;
         currentFunction = enclosingFunction;
     }
 
@@ -0,0 +1,175 @@
+package com.ericduncandev.lox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// A string made by '+' that has not been copied into one piece yet. Each
+// concatenation that results in FLAT_LIMIT characters or more makes a
+// Rope node pointing at its two halves, so building a string up in a loop
+// takes linear time instead of copying everything built so far each time.
+// Shorter results are plain Strings, which are cheaper at that size.
+//
+// A rope is flattened into a String the first time something needs its
+// characters (indexing, printing, equality) and keeps that String from
+// then on. Only len() can do without.
+//
+// Appending short strings one after another would make one node per
+// append, so a short string is copied into the rope's last leaf instead
+// while that stays under LEAF_LIMIT characters (and likewise for
+// prepending). A rope that gets deeper than MAX_DEPTH anyway is rebuilt
+// as a balanced tree of its leaves, which also keeps flattening it from
+// recursing too deep.
+final class Rope implements CharSequence {
+    static final int FLAT_LIMIT = 64;
+    static final int LEAF_LIMIT = 256;
+    static final int MAX_DEPTH = 48;
+
+    // Each a String or a Rope, until flattened.
+    private CharSequence left;
+    private CharSequence right;
+    private String flat = null;
+    private final int length;
+    private final int depth;
+
+    private Rope(CharSequence left, CharSequence right) {
+        this.left = left;
+        this.right = right;
+        this.length = left.length() + right.length();
+        this.depth = 1 + Math.max(depthOf(left), depthOf(right));
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof Rope;
+    }
+
+    // left + right, each a String or a Rope.
+    static CharSequence concat(CharSequence left, CharSequence right) {
+        if (left.length() + right.length() < FLAT_LIMIT) {
+            return left.toString() + right.toString();
+        }
+        if (left.length() == 0) return right;
+        if (right.length() == 0) return left;
+
+        left = unwrap(left);
+        right = unwrap(right);
+        if (left instanceof Rope && right instanceof String) {
+            Rope rope = (Rope) left;
+            CharSequence last = unwrap(rope.right);
+            if (last instanceof String && last.length() + right.length() <= LEAF_LIMIT) {
+                return new Rope(rope.left, last.toString() + right);
+            }
+        } else if (left instanceof String && right instanceof Rope) {
+            Rope rope = (Rope) right;
+            CharSequence first = unwrap(rope.left);
+            if (first instanceof String && left.length() + first.length() <= LEAF_LIMIT) {
+                return new Rope(left + first.toString(), rope.right);
+            }
+        }
+
+        Rope rope = new Rope(left, right);
+        if (rope.depth > MAX_DEPTH) return rope.rebalanced();
+        return rope;
+    }
+
+    // A flattened rope is as good as its String.
+    private static CharSequence unwrap(CharSequence part) {
+        if (part instanceof Rope && ((Rope) part).flat != null) return ((Rope) part).flat;
+        return part;
+    }
+
+    private static int depthOf(CharSequence part) {
+        if (part instanceof Rope && ((Rope) part).flat == null) return ((Rope) part).depth;
+        return 0;
+    }
+
+    private CharSequence rebalanced() {
+        List<String> leaves = new ArrayList<>();
+        StringBuilder pending = new StringBuilder();
+        collectLeaves(this, leaves, pending);
+        if (pending.length() > 0) leaves.add(pending.toString());
+        return balance(leaves, 0, leaves.size());
+    }
+
+    // The leaves of part in order, with runs of short ones joined up.
+    private static void collectLeaves(CharSequence part, List<String> leaves,
+                                      StringBuilder pending) {
+        part = unwrap(part);
+        if (part instanceof Rope) {
+            collectLeaves(((Rope) part).left, leaves, pending);
+            collectLeaves(((Rope) part).right, leaves, pending);
+            return;
+        }
+
+        if (pending.length() + part.length() > LEAF_LIMIT && pending.length() > 0) {
+            leaves.add(pending.toString());
+            pending.setLength(0);
+        }
+        if (part.length() >= LEAF_LIMIT) {
+            leaves.add(part.toString());
+        } else {
+            pending.append(part);
+        }
+    }
+
+    private static CharSequence balance(List<String> leaves, int from, int to) {
+        if (to - from == 1) return leaves.get(from);
+        int middle = (from + to) >>> 1;
+        return new Rope(balance(leaves, from, middle), balance(leaves, middle, to));
+    }
+
+    @Override
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        return toString().charAt(index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        return toString().subSequence(start, end);
+    }
+
+    @Override
+    public String toString() {
+        if (flat == null) {
+            char[] chars = new char[length];
+            copyInto(chars, 0);
+            flat = new String(chars);
+            left = null;
+            right = null;
+        }
+        return flat;
+    }
+
+    private void copyInto(char[] chars, int offset) {
+        if (flat != null) {
+            flat.getChars(0, length, chars, offset);
+            return;
+        }
+        copy(left, chars, offset);
+        copy(right, chars, offset + left.length());
+    }
+
+    private static void copy(CharSequence part, char[] chars, int offset) {
+        if (part instanceof String) {
+            ((String) part).getChars(0, part.length(), chars, offset);
+        } else {
+            ((Rope) part).copyInto(chars, offset);
+        }
+    }
+
+    // Equal to a String or Rope with the same characters.
+    @Override
+    public boolean equals(Object other) {
+        if (!isString(other)) return false;
+        return toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
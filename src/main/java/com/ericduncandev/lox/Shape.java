@@ -0,0 +1,42 @@
+package com.ericduncandev.lox;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// The layout of a LoxInstance's fields: which slot of its field array
+// holds which name. Instances that gain the same fields in the same order
+// share one Shape, so the name-to-slot table is stored once per layout
+// instead of once per object. Adding a field moves an instance along a
+// cached transition to the next shape.
+class Shape {
+    private final Map<String, Integer> slots;
+    private final Map<String, Shape> transitions = new HashMap<>();
+
+    Shape() {
+        this.slots = new HashMap<>();
+    }
+
+    private Shape(Shape parent, String name) {
+        this.slots = new HashMap<>(parent.slots);
+        this.slots.put(name, parent.slots.size());
+    }
+
+    int fieldCount() {
+        return slots.size();
+    }
+
+    // The slot holding the named field, or -1 if this shape has none.
+    int indexOf(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    Shape withField(String name) {
+        Shape next = transitions.get(name);
+        if (next == null) {
+            next = new Shape(this, name);
+            transitions.put(name, next);
+        }
+        return next;
+    }
+}
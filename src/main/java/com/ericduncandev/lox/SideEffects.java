@@ -0,0 +1,254 @@
+package com.ericduncandev.lox;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+// What a piece of code might change or depend on, by name. Everything is
+// collected conservatively, including the bodies of functions and classes
+// declared inside it, since those may run while it does.
+class SideEffects implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    final Set<String> declared = new HashSet<>();
+    final Set<String> assigned = new HashSet<>();
+    final Set<String> properties = new HashSet<>();
+    final Set<String> methods = new HashSet<>();
+    boolean callsLen = false;
+    boolean callsOther = false;
+    boolean imports = false;
+
+    // The program the code is part of, whose classes decide which property
+    // reads might run a getter. Null when scanning the program itself.
+    private final SideEffects program;
+
+    private SideEffects(SideEffects program) {
+        this.program = program;
+    }
+
+    static SideEffects of(List<Stmt> statements) {
+        SideEffects effects = new SideEffects(null);
+        effects.scan(statements);
+        return effects;
+    }
+
+    static SideEffects of(Stmt statement, SideEffects program) {
+        SideEffects effects = new SideEffects(program);
+        statement.accept(effects);
+        return effects;
+    }
+
+    // Whether 'len' can only be the native function, which has no
+    // side effects and depends on nothing but its argument.
+    boolean lenIsNative() {
+        return !imports && !declared.contains("len") && !assigned.contains("len");
+    }
+
+    private void scan(List<Stmt> statements) {
+        for (Stmt statement : statements) {
+            statement.accept(this);
+        }
+    }
+
+    private void scan(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void scanFunction(Stmt.Function function) {
+        declared.add(function.name.lexeme);
+        if (function.params != null) {
+            for (Token param : function.params) {
+                declared.add(param.lexeme);
+            }
+        }
+        scan(function.body);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        scan(stmt.statements);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        declared.add(stmt.name.lexeme);
+        for (Stmt.Function method : stmt.methods) {
+            methods.add(method.name.lexeme);
+            scanFunction(method);
+        }
+        for (Stmt.Function method : stmt.classMethods) {
+            methods.add(method.name.lexeme);
+            scanFunction(method);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        scan(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        scanFunction(stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        scan(stmt.condition);
+        stmt.thenBranch.accept(this);
+        if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        scan(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        imports = true;
+        return null;
+    }
+
+    @Override
+    public Void visitExportStmt(Stmt.Export stmt) {
+        stmt.declaration.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if (stmt.value != null) scan(stmt.value);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        declared.add(stmt.name.lexeme);
+        if (stmt.initializer != null) scan(stmt.initializer);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        scan(stmt.condition);
+        stmt.body.accept(this);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        assigned.add(expr.name.lexeme);
+        scan(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        scan(expr.left);
+        scan(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Variable &&
+                ((Expr.Variable) expr.callee).name.lexeme.equals("len")) {
+            callsLen = true;
+        } else {
+            callsOther = true;
+        }
+
+        scan(expr.callee);
+        for (Expr argument : expr.arguments) {
+            scan(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        // Reading a method name may call a getter, which can change anything.
+        if (program != null &&
+                (program.imports || program.methods.contains(expr.name.lexeme))) {
+            callsOther = true;
+        }
+
+        scan(expr.object);
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        for (Expr element : expr.elements) {
+            scan(element);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitArrayAccessExpr(Expr.ArrayAccess expr) {
+        scan(expr.array);
+        scan(expr.index);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        scan(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        scan(expr.left);
+        scan(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        properties.add(expr.name.lexeme);
+        scan(expr.object);
+        scan(expr.value);
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        scan(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Expr.Conditional expr) {
+        scan(expr.expr);
+        scan(expr.thenBranch);
+        scan(expr.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        return null;
+    }
+}
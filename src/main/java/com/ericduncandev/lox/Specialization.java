@@ -0,0 +1,82 @@
+package com.ericduncandev.lox;
+
+// What a Binary, Unary or Logical node has rewritten itself into, based on
+// the operand types it has seen. A node starts out UNINITIALIZED and picks
+// the narrowest variant that fits its first operands. A specialized node
+// only has to check that its operands still have the expected types. The
+// first time they do not, it falls back to GENERIC for good, so a node
+// with mixed operands does not keep flipping between variants.
+enum Specialization {
+    UNINITIALIZED,
+    GENERIC,
+
+    // Binary nodes.
+    ADD_NUMBERS,
+    SUBTRACT_NUMBERS,
+    MULTIPLY_NUMBERS,
+    DIVIDE_NUMBERS,
+    MODULO_NUMBERS,
+    GREATER_NUMBERS,
+    GREATER_EQUAL_NUMBERS,
+    LESS_NUMBERS,
+    LESS_EQUAL_NUMBERS,
+    EQUAL_NUMBERS,
+    NOT_EQUAL_NUMBERS,
+    CONCATENATE_STRINGS,
+    EQUAL_STRINGS,
+    NOT_EQUAL_STRINGS,
+
+    // Unary nodes.
+    NEGATE_NUMBER,
+    NOT_BOOLEAN,
+
+    // Logical nodes.
+    BOOLEAN_OPERAND;
+
+    static Specialization forBinary(TokenType operator, Object left, Object right) {
+        if (left instanceof Double && right instanceof Double) {
+            switch (operator) {
+                case PLUS: return ADD_NUMBERS;
+                case MINUS: return SUBTRACT_NUMBERS;
+                case STAR: return MULTIPLY_NUMBERS;
+                case SLASH: return DIVIDE_NUMBERS;
+                case PERCENT: return MODULO_NUMBERS;
+                case GREATER: return GREATER_NUMBERS;
+                case GREATER_EQUAL: return GREATER_EQUAL_NUMBERS;
+                case LESS: return LESS_NUMBERS;
+                case LESS_EQUAL: return LESS_EQUAL_NUMBERS;
+                case EQUAL_EQUAL: return EQUAL_NUMBERS;
+                case BANG_EQUAL: return NOT_EQUAL_NUMBERS;
+            }
+        } else if (Rope.isString(left) && Rope.isString(right)) {
+            switch (operator) {
+                case PLUS: return CONCATENATE_STRINGS;
+                case EQUAL_EQUAL: return EQUAL_STRINGS;
+                case BANG_EQUAL: return NOT_EQUAL_STRINGS;
+            }
+        }
+
+        return GENERIC;
+    }
+
+    static Specialization forUnary(TokenType operator, Object operand) {
+        if (operator == TokenType.MINUS && operand instanceof Double) {
+            return NEGATE_NUMBER;
+        }
+        if (operator == TokenType.BANG && operand instanceof Boolean) {
+            return NOT_BOOLEAN;
+        }
+
+        return GENERIC;
+    }
+
+    // Logical nodes look only at their left operand; the right one is
+    // returned as it is.
+    static Specialization forLogical(Specialization current, Object left) {
+        if (current == UNINITIALIZED && left instanceof Boolean) {
+            return BOOLEAN_OPERAND;
+        }
+
+        return GENERIC;
+    }
+}
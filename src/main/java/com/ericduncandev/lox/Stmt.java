@@ -2,8 +2,8 @@ package com.ericduncandev.lox;
 
 import java.util.List;
 
-abstract class Stmt {
-  interface Visitor<R> {
+public abstract class Stmt {
+  public interface Visitor<R> {
     R visitBlockStmt(Block stmt);
     R visitBreakStmt(Break stmt);
     R visitClassStmt(Class stmt);
@@ -17,29 +17,33 @@ abstract class Stmt {
     R visitVarStmt(Var stmt);
     R visitWhileStmt(While stmt);
   }
-  static class Block extends Stmt {
+  public static class Block extends Stmt {
     Block(List<Stmt> statements) {
       this.statements = statements;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitBlockStmt(this);
     }
 
-    final List<Stmt> statements;
+    public final List<Stmt> statements;
+
+    int locals;
+    int frameSize;
+    Environment spare;
   }
-  static class Break extends Stmt {
+  public static class Break extends Stmt {
     Break() {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitBreakStmt(this);
     }
 
   }
-  static class Class extends Stmt {
+  public static class Class extends Stmt {
     Class(Token name, List<Stmt.Function> methods, List<Stmt.Function> classMethods) {
       this.name = name;
       this.methods = methods;
@@ -47,27 +51,31 @@ abstract class Stmt {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitClassStmt(this);
     }
 
-    final Token name;
-    final List<Stmt.Function> methods;
-    final List<Stmt.Function> classMethods;
+    public final Token name;
+    public final List<Stmt.Function> methods;
+    public final List<Stmt.Function> classMethods;
+
+    int slot;
+    boolean isGlobal = true;
+    boolean captured;
   }
-  static class Expression extends Stmt {
+  public static class Expression extends Stmt {
     Expression(Expr expression) {
       this.expression = expression;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitExpressionStmt(this);
     }
 
-    final Expr expression;
+    public final Expr expression;
   }
-  static class Function extends Stmt {
+  public static class Function extends Stmt {
     Function(Token name, List<Token> params, List<Stmt> body) {
       this.name = name;
       this.params = params;
@@ -75,15 +83,24 @@ abstract class Stmt {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitFunctionStmt(this);
     }
 
-    final Token name;
-    final List<Token> params;
-    final List<Stmt> body;
+    public final Token name;
+    public final List<Token> params;
+    public final List<Stmt> body;
+
+    int frameSize;
+    int locals;
+    int[] capturedSlots;
+    FunctionProfile profile;
+    ClosureCompiler.StmtNode tieredBody;
+    int slot;
+    boolean isGlobal = true;
+    boolean captured;
   }
-  static class If extends Stmt {
+  public static class If extends Stmt {
     If(Expr condition, Stmt thenBranch, Stmt elseBranch) {
       this.condition = condition;
       this.thenBranch = thenBranch;
@@ -91,96 +108,100 @@ abstract class Stmt {
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitIfStmt(this);
     }
 
-    final Expr condition;
-    final Stmt thenBranch;
-    final Stmt elseBranch;
+    public final Expr condition;
+    public final Stmt thenBranch;
+    public final Stmt elseBranch;
   }
-  static class Print extends Stmt {
+  public static class Print extends Stmt {
     Print(Expr expression) {
       this.expression = expression;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitPrintStmt(this);
     }
 
-    final Expr expression;
+    public final Expr expression;
   }
-  static class Import extends Stmt {
+  public static class Import extends Stmt {
     Import(Token keyword, Token path) {
       this.keyword = keyword;
       this.path = path;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitImportStmt(this);
     }
 
-    final Token keyword;
-    final Token path;
+    public final Token keyword;
+    public final Token path;
   }
-  static class Export extends Stmt {
+  public static class Export extends Stmt {
     Export(Token keyword, Stmt declaration) {
       this.keyword = keyword;
       this.declaration = declaration;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitExportStmt(this);
     }
 
-    final Token keyword;
-    final Stmt declaration;
+    public final Token keyword;
+    public final Stmt declaration;
   }
-  static class Return extends Stmt {
+  public static class Return extends Stmt {
     Return(Token keyword, Expr value) {
       this.keyword = keyword;
       this.value = value;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitReturnStmt(this);
     }
 
-    final Token keyword;
-    final Expr value;
+    public final Token keyword;
+    public final Expr value;
   }
-  static class Var extends Stmt {
+  public static class Var extends Stmt {
     Var(Token name, Expr initializer) {
       this.name = name;
       this.initializer = initializer;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitVarStmt(this);
     }
 
-    final Token name;
-    final Expr initializer;
+    public final Token name;
+    public final Expr initializer;
+
+    int slot;
+    boolean isGlobal = true;
+    boolean captured;
   }
-  static class While extends Stmt {
+  public static class While extends Stmt {
     While(Expr condition, Stmt body) {
       this.condition = condition;
       this.body = body;
     }
 
     @Override
-    <R> R accept(Visitor<R> visitor) {
+    public <R> R accept(Visitor<R> visitor) {
       return visitor.visitWhileStmt(this);
     }
 
-    final Expr condition;
-    final Stmt body;
+    public final Expr condition;
+    public final Stmt body;
   }
 
-  abstract <R> R accept(Visitor<R> visitor);
+  public abstract <R> R accept(Visitor<R> visitor);
 }
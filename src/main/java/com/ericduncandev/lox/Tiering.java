@@ -0,0 +1,91 @@
+package com.ericduncandev.lox;
+
+// A second tier for the tree-walker. Every function keeps a profile of
+// its calls and the loop iterations (back edges) it runs. When the
+// TieringPolicy says it is hot, the function's body is compiled into
+// closures by a ClosureCompiler, and later calls run that instead of
+// walking the tree. A loop that made its function hot switches to
+// compiled code for the rest of its iterations.
+//
+// Compiled code assumes the operand types the tree-walker has seen so far
+// (see Specialization). When one of those guesses turns out wrong, the
+// function is deoptimized: the current call finishes on a generic path,
+// and later calls go back to the tree-walker until the function gets hot
+// again. A function that keeps deoptimizing stays in the tree-walker.
+//
+// The tier targets closures rather than JVM bytecode. Hidden classes
+// (Lookup.defineHiddenClass) are available, but JDK 17 has no API for
+// writing the class files to define, and the project takes no
+// dependencies. Generated classes could replace the closures behind
+// enter() and compileLoop() later.
+class Tiering {
+    private final ClosureCompiler compiler;
+    private final TieringPolicy policy;
+    private final boolean log;
+
+    Tiering(Interpreter interpreter, TieringPolicy policy, boolean log) {
+        this.compiler = new ClosureCompiler(interpreter, this);
+        this.policy = policy;
+        this.log = log;
+    }
+
+    // Called on every call of a function, after its profile has counted
+    // the call. Returns its compiled body, or null if it should be walked.
+    ClosureCompiler.StmtNode enter(Stmt.Function function) {
+        if (function.tieredBody != null) return function.tieredBody;
+        if (!policy.shouldCompile(function.profile)) return null;
+        return compile(function);
+    }
+
+    // Called after each iteration of a loop the tree-walker runs inside
+    // function. Returns true if the function has just been compiled.
+    boolean backEdge(Stmt.Function function) {
+        return function.tieredBody == null && policy.shouldCompile(function.profile) &&
+                compile(function) != null;
+    }
+
+    // The rest of a loop that made its function hot, in compiled form.
+    ClosureCompiler.StmtNode compileLoop(Stmt.Function function, Stmt.While loop) {
+        long start = System.nanoTime();
+        ClosureCompiler.StmtNode node = compiler.compileLoop(function, loop);
+        log(function, "entered a compiled loop", start);
+        return node;
+    }
+
+    private ClosureCompiler.StmtNode compile(Stmt.Function function) {
+        long start = System.nanoTime();
+        function.tieredBody = compiler.compileBody(function);
+        log(function, "compiled after " + function.profile.recentInvocations() +
+                " calls and " + function.profile.recentBackEdges() + " back edges", start);
+        return function.tieredBody;
+    }
+
+    // Called by compiled code whose guess about its operands was wrong.
+    // generation is the number of deoptimizations the function had when
+    // that code was compiled, so code from an earlier compilation that is
+    // still running cannot throw out a newer one.
+    void deoptimize(Stmt.Function function, int generation, Token where, String reason) {
+        if (function.tieredBody == null || function.profile.deoptimizations != generation) {
+            return;
+        }
+
+        function.tieredBody = null;
+        function.profile.deoptimized();
+        if (log) {
+            System.err.println("[tier] " + describe(function) + ": deoptimized at line " +
+                    where.line + ", " + reason + ".");
+        }
+    }
+
+    private void log(Stmt.Function function, String event, long start) {
+        if (!log) return;
+
+        double milliseconds = (System.nanoTime() - start) / 1e6;
+        System.err.println("[tier] " + describe(function) + ": " + event +
+                String.format(" in %.3f ms.", milliseconds));
+    }
+
+    private static String describe(Stmt.Function function) {
+        return "fun " + function.name.lexeme + " (line " + function.name.line + ")";
+    }
+}
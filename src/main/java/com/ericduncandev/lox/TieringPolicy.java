@@ -0,0 +1,22 @@
+package com.ericduncandev.lox;
+
+// Decides, from its profile, when Tiering should compile a function. It is
+// asked on each call of a function that has not been compiled, and after
+// each iteration of a loop in one.
+interface TieringPolicy {
+    boolean shouldCompile(FunctionProfile profile);
+
+    // What --tiering uses.
+    TieringPolicy DEFAULT = thresholds(1000, 10000, 3);
+    // Compiles every function on its first call, with --tiering=eager.
+    TieringPolicy EAGER = thresholds(1, 1, 3);
+
+    // Compiles a function once it has been called invocations times, or
+    // run backEdges loop iterations, since it was last deoptimized. One
+    // that has been deoptimized deoptimizationLimit times stays walked.
+    static TieringPolicy thresholds(long invocations, long backEdges, int deoptimizationLimit) {
+        return profile -> profile.deoptimizations < deoptimizationLimit &&
+                (profile.recentInvocations() >= invocations ||
+                        profile.recentBackEdges() >= backEdges);
+    }
+}
@@ -1,6 +1,6 @@
 package com.ericduncandev.lox;
 
-enum TokenType {
+public enum TokenType {
     // Single-character tokens.
     LEFT_PAREN, RIGHT_PAREN, LEFT_BRACKET, RIGHT_BRACKET,
     LEFT_BRACE, RIGHT_BRACE, COMMA, DOT, MINUS, PLUS,
@@ -0,0 +1,123 @@
+package com.ericduncandev.lox;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// What DEBUG used to print from the middle of the interpreter, as an
+// ExecutionListener. Selected with --trace, or by building with DEBUG on.
+//
+// Formatting a message is all the interpreter's thread does. It puts the
+// message in a ring buffer, and a daemon thread takes it from there and
+// writes it to stderr, out of the program's way. There is one writer and
+// one reader, so the buffer needs no lock: each side only advances its
+// own counter. When the buffer is full the writer waits for the reader
+// rather than dropping messages.
+class TraceLog implements ExecutionListener {
+    static final int CAPACITY = 1 << 14;
+
+    private final Interpreter interpreter;
+    private final PrintStream out;
+    private final String[] messages = new String[CAPACITY];
+    // The next message to write, and the next to read.
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+    private final Thread reader;
+    private volatile boolean closed = false;
+
+    TraceLog(Interpreter interpreter, PrintStream out) {
+        this.interpreter = interpreter;
+        this.out = out;
+        reader = new Thread(this::drain, "lox-trace");
+        reader.setDaemon(true);
+        reader.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::close));
+    }
+
+    private void log(String message) {
+        long next = head.get();
+        while (next - tail.get() == CAPACITY) {
+            Thread.yield();
+        }
+        messages[(int) (next & (CAPACITY - 1))] = message;
+        // Publishes the message along with the new head.
+        head.lazySet(next + 1);
+    }
+
+    private void drain() {
+        for (;;) {
+            // Anything logged before close() is visible once closed is.
+            boolean last = closed;
+            long from = tail.get();
+            long to = head.get();
+            if (from == to) {
+                if (last) return;
+                LockSupport.parkNanos(1_000_000);
+                continue;
+            }
+
+            for (long i = from; i < to; i++) {
+                int slot = (int) (i & (CAPACITY - 1));
+                out.println(messages[slot]);
+                messages[slot] = null;
+            }
+            out.flush();
+            tail.lazySet(to);
+        }
+    }
+
+    // Waits for everything logged so far to be written.
+    void close() {
+        closed = true;
+        LockSupport.unpark(reader);
+        try {
+            reader.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void onCall(LoxFunction function, Object[] stack, int first) {
+        log("Debug: Calling function " + function.declaration.name.lexeme);
+        for (int i = 0; i < function.arity(); i++) {
+            log("Debug: Defining parameter " + function.declaration.params.get(i).lexeme +
+                    " with value " + interpreter.stringify(stack[first + i]));
+        }
+    }
+
+    @Override
+    public void onReturn(LoxFunction function, Object value) {
+        log("Debug: Returning " + interpreter.stringify(value) + " from " +
+                function.declaration.name.lexeme);
+    }
+
+    @Override
+    public void onVariableRead(Token name, Object value) {
+        log("Debug: Read " + name.lexeme + " = " + interpreter.stringify(value) +
+                " at line " + name.line);
+    }
+
+    @Override
+    public void onVariableWrite(Token name, Object value) {
+        log("Debug: Wrote " + name.lexeme + " = " + interpreter.stringify(value) +
+                " at line " + name.line);
+    }
+
+    @Override
+    public void onIndex(Token bracket, Object target, Object index, Object result) {
+        log("Debug: Indexed " + interpreter.stringify(target) + "[" +
+                interpreter.stringify(index) + "] = " + interpreter.stringify(result) +
+                " at line " + bracket.line);
+    }
+
+    @Override
+    public void onAllocation(Object value) {
+        log("Debug: Created " + interpreter.stringify(value));
+    }
+
+    @Override
+    public void onModuleLoad(String path) {
+        log("Debug: Loading module " + path);
+    }
+}
@@ -0,0 +1,121 @@
+package com.ericduncandev.lox.vm;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class Chunk {
+    byte[] code = new byte[64];
+    int[] lines = new int[64];
+    int count = 0;
+    final List<Object> constants = new ArrayList<>();
+    private final Map<Object, Integer> constantIndex = new HashMap<>();
+
+    void write(byte value, int line) {
+        if (count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        code[count] = value;
+        lines[count] = line;
+        count++;
+    }
+
+    int addConstant(Object value) {
+        // Names and numbers repeat a lot; reuse an existing entry.
+        // Functions are compared by identity, which the map also does.
+        Integer existing = constantIndex.get(value);
+        if (existing != null) return existing;
+
+        constants.add(value);
+        constantIndex.put(value, constants.size() - 1);
+        return constants.size() - 1;
+    }
+
+    int readShort(int offset) {
+        return ((code[offset] & 0xff) << 8) | (code[offset + 1] & 0xff);
+    }
+
+    void disassemble(String name) {
+        System.err.println("== " + name + " ==");
+        for (int offset = 0; offset < count; ) {
+            offset = disassembleInstruction(offset);
+        }
+    }
+
+    private int disassembleInstruction(int offset) {
+        StringBuilder line = new StringBuilder();
+        line.append(String.format("%04d ", offset));
+        if (offset > 0 && lines[offset] == lines[offset - 1]) {
+            line.append("   | ");
+        } else {
+            line.append(String.format("%4d ", lines[offset]));
+        }
+
+        byte op = code[offset];
+        line.append(String.format("%-18s", OpCode.name(op)));
+        switch (op) {
+            case OpCode.CONSTANT:
+            case OpCode.GET_GLOBAL:
+            case OpCode.DEFINE_GLOBAL:
+            case OpCode.SET_GLOBAL:
+            case OpCode.GET_PROPERTY:
+            case OpCode.SET_PROPERTY:
+            case OpCode.GET_METHOD:
+            case OpCode.CLASS:
+            case OpCode.METHOD:
+            case OpCode.CLASS_METHOD:
+            case OpCode.IMPORT: {
+                int constant = readShort(offset + 1);
+                line.append(constant).append(" '")
+                        .append(constants.get(constant)).append("'");
+                offset += 3;
+                break;
+            }
+            case OpCode.GET_LOCAL:
+            case OpCode.SET_LOCAL:
+            case OpCode.GET_UPVALUE:
+            case OpCode.SET_UPVALUE:
+            case OpCode.CALL:
+            case OpCode.INVOKE:
+                line.append(code[offset + 1] & 0xff);
+                offset += 2;
+                break;
+            case OpCode.ARRAY:
+                line.append(readShort(offset + 1));
+                offset += 3;
+                break;
+            case OpCode.JUMP:
+            case OpCode.JUMP_IF_FALSE:
+            case OpCode.JUMP_IF_TRUE:
+            case OpCode.POP_JUMP_IF_FALSE:
+                line.append("-> ").append(offset + 3 + readShort(offset + 1));
+                offset += 3;
+                break;
+            case OpCode.LOOP:
+                line.append("-> ").append(offset + 3 - readShort(offset + 1));
+                offset += 3;
+                break;
+            case OpCode.CLOSURE: {
+                int constant = readShort(offset + 1);
+                ObjFunction function = (ObjFunction) constants.get(constant);
+                line.append(constant).append(" ").append(function);
+                offset += 3;
+                for (int i = 0; i < function.upvalueCount; i++) {
+                    boolean isLocal = code[offset] == 1;
+                    int index = code[offset + 1] & 0xff;
+                    line.append(isLocal ? " local " : " upvalue ").append(index);
+                    offset += 2;
+                }
+                break;
+            }
+            default:
+                offset += 1;
+                break;
+        }
+        System.err.println(line);
+        return offset;
+    }
+}
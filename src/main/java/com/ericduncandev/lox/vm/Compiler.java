@@ -0,0 +1,646 @@
+package com.ericduncandev.lox.vm;
+
+import com.ericduncandev.lox.Expr;
+import com.ericduncandev.lox.Stmt;
+import com.ericduncandev.lox.Token;
+import com.ericduncandev.lox.TokenType;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Compiles a parsed and resolved program into bytecode. Scoping errors
+// have already been reported by the Resolver, so this pass only has to
+// check the limits of the instruction encoding. Those limits make the VM
+// reject some programs the tree-walker runs: a function can have 255
+// locals besides the slot for itself or "this", and 256 closure
+// variables; a chunk can have 65535 constants; and a jump, a loop body or
+// an array literal can span at most 65535 bytes or elements.
+class Compiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int MAX_LOCALS = 256;
+    private static final int MAX_UPVALUES = 256;
+    private static final int MAX_SHORT = 0xffff;
+
+    private enum FunctionType {
+        SCRIPT,
+        FUNCTION,
+        INITIALIZER,
+        METHOD
+    }
+
+    private static class Local {
+        final String name;
+        final int depth;
+        boolean isCaptured = false;
+
+        Local(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+    }
+
+    private static class Upvalue {
+        final int index;
+        final boolean isLocal;
+
+        Upvalue(int index, boolean isLocal) {
+            this.index = index;
+            this.isLocal = isLocal;
+        }
+    }
+
+    private static class Loop {
+        final Loop enclosing;
+        final int scopeDepth;
+        final List<Integer> breakJumps = new ArrayList<>();
+
+        Loop(Loop enclosing, int scopeDepth) {
+            this.enclosing = enclosing;
+            this.scopeDepth = scopeDepth;
+        }
+    }
+
+    private static class FunctionState {
+        final FunctionState enclosing;
+        final ObjFunction function;
+        final FunctionType type;
+        final List<Local> locals = new ArrayList<>();
+        final List<Upvalue> upvalues = new ArrayList<>();
+        int scopeDepth = 0;
+        Loop loop = null;
+
+        FunctionState(FunctionState enclosing, ObjFunction function,
+                      FunctionType type) {
+            this.enclosing = enclosing;
+            this.function = function;
+            this.type = type;
+        }
+    }
+
+    private final boolean DEBUG;
+    private FunctionState current = null;
+    private int line = 1;
+    private boolean hadError = false;
+
+    Compiler(boolean DEBUG) {
+        this.DEBUG = DEBUG;
+    }
+
+    ObjFunction compile(List<Stmt> statements) {
+        beginFunction(new ObjFunction(null), FunctionType.SCRIPT);
+        for (Stmt statement : statements) {
+            compile(statement);
+        }
+        ObjFunction function = endFunction();
+
+        return hadError ? null : function;
+    }
+
+    // Compiles a lone REPL expression into a script returning its value.
+    ObjFunction compileExpression(Expr expression) {
+        beginFunction(new ObjFunction(null), FunctionType.SCRIPT);
+        compile(expression);
+        emit(OpCode.RETURN);
+        ObjFunction function = endFunction();
+
+        return hadError ? null : function;
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        beginScope();
+        for (Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        endScope();
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        Loop loop = current.loop;
+        if (loop == null) return null;
+
+        // Discard the locals of every scope being jumped out of, without
+        // forgetting them: the code after the break still owns them.
+        List<Local> locals = current.locals;
+        for (int i = locals.size() - 1;
+             i >= 0 && locals.get(i).depth > loop.scopeDepth; i--) {
+            emit(locals.get(i).isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+        loop.breakJumps.add(emitJump(OpCode.JUMP));
+        return null;
+    }
+
+    @Override
+    public Void visitClassStmt(Stmt.Class stmt) {
+        line = stmt.name.line;
+        int name = makeConstant(stmt.name.lexeme);
+        declareVariable(stmt.name);
+        emitWithShort(OpCode.CLASS, name);
+        defineVariable(name);
+
+        namedVariable(stmt.name, false);
+        for (Stmt.Function method : stmt.methods) {
+            FunctionType type = method.name.lexeme.equals("init")
+                    ? FunctionType.INITIALIZER : FunctionType.METHOD;
+            function(method, type);
+            emitWithShort(OpCode.METHOD, makeConstant(method.name.lexeme));
+        }
+        for (Stmt.Function method : stmt.classMethods) {
+            function(method, FunctionType.METHOD);
+            emitWithShort(OpCode.CLASS_METHOD, makeConstant(method.name.lexeme));
+        }
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        line = stmt.name.line;
+        int name = current.scopeDepth > 0 ? 0 : makeConstant(stmt.name.lexeme);
+        // Declared before the body so the function can call itself.
+        declareVariable(stmt.name);
+        function(stmt, FunctionType.FUNCTION);
+        defineVariable(name);
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int thenJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+        compile(stmt.thenBranch);
+
+        if (stmt.elseBranch == null) {
+            patchJump(thenJump);
+            return null;
+        }
+
+        int elseJump = emitJump(OpCode.JUMP);
+        patchJump(thenJump);
+        compile(stmt.elseBranch);
+        patchJump(elseJump);
+        return null;
+    }
+
+    @Override
+    public Void visitPrintStmt(Stmt.Print stmt) {
+        compile(stmt.expression);
+        emit(OpCode.PRINT);
+        return null;
+    }
+
+    @Override
+    public Void visitImportStmt(Stmt.Import stmt) {
+        line = stmt.keyword.line;
+        emitWithShort(OpCode.IMPORT, makeConstant(stmt.path.literal));
+        return null;
+    }
+
+    @Override
+    public Void visitExportStmt(Stmt.Export stmt) {
+        // Every module shares the VM's globals, so exporting a top-level
+        // declaration needs nothing beyond declaring it.
+        compile(stmt.declaration);
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        line = stmt.keyword.line;
+        if (current.type == FunctionType.INITIALIZER) {
+            emitWithByte(OpCode.GET_LOCAL, 0);
+        } else if (stmt.value == null) {
+            emit(OpCode.NIL);
+        } else {
+            compile(stmt.value);
+        }
+        emit(OpCode.RETURN);
+        return null;
+    }
+
+    @Override
+    public Void visitVarStmt(Stmt.Var stmt) {
+        if (stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.UNINITIALIZED);
+        }
+
+        line = stmt.name.line;
+        int name = current.scopeDepth > 0 ? 0 : makeConstant(stmt.name.lexeme);
+        declareVariable(stmt.name);
+        defineVariable(name);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int loopStart = current.function.chunk.count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+
+        Loop loop = new Loop(current.loop, current.scopeDepth);
+        current.loop = loop;
+        compile(stmt.body);
+        current.loop = loop.enclosing;
+
+        emitLoop(loopStart);
+        patchJump(exitJump);
+        for (int jump : loop.breakJumps) {
+            patchJump(jump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        namedVariable(expr.name, true);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        if (expr.operator.type == TokenType.COMMA) {
+            // The tree-walker evaluates both operands and yields nil.
+            emit(OpCode.POP);
+            compile(expr.right);
+            emit(OpCode.POP);
+            emit(OpCode.NIL);
+            return null;
+        }
+        compile(expr.right);
+
+        line = expr.operator.line;
+        switch (expr.operator.type) {
+            case BANG_EQUAL: emit(OpCode.NOT_EQUAL); break;
+            case EQUAL_EQUAL: emit(OpCode.EQUAL); break;
+            case GREATER: emit(OpCode.GREATER); break;
+            case GREATER_EQUAL: emit(OpCode.GREATER_EQUAL); break;
+            case LESS: emit(OpCode.LESS); break;
+            case LESS_EQUAL: emit(OpCode.LESS_EQUAL); break;
+            case PLUS: emit(OpCode.ADD); break;
+            case MINUS: emit(OpCode.SUBTRACT); break;
+            case STAR: emit(OpCode.MULTIPLY); break;
+            case SLASH: emit(OpCode.DIVIDE); break;
+            case PERCENT: emit(OpCode.MODULO); break;
+            case BAR: emit(OpCode.BIT_OR); break;
+            case XOR: emit(OpCode.BIT_XOR); break;
+            default:
+                // Unreachable.
+                emit(OpCode.POP);
+                emit(OpCode.POP);
+                emit(OpCode.NIL);
+                break;
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        if (expr.callee instanceof Expr.Get) {
+            // Look the method up first, like the tree-walker does, but leave
+            // the receiver on the stack instead of binding a method object.
+            Expr.Get get = (Expr.Get) expr.callee;
+            compile(get.object);
+            line = get.name.line;
+            emitWithShort(OpCode.GET_METHOD, makeConstant(get.name.lexeme));
+            for (Expr argument : expr.arguments) {
+                compile(argument);
+            }
+            line = expr.paren.line;
+            emitWithByte(OpCode.INVOKE, expr.arguments.size());
+            return null;
+        }
+
+        compile(expr.callee);
+        for (Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        line = expr.paren.line;
+        emitWithByte(OpCode.CALL, expr.arguments.size());
+        return null;
+    }
+
+    @Override
+    public Void visitGetExpr(Expr.Get expr) {
+        compile(expr.object);
+        line = expr.name.line;
+        emitWithShort(OpCode.GET_PROPERTY, makeConstant(expr.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitArrayExpr(Expr.Array expr) {
+        if (expr.elements.size() > MAX_SHORT) {
+            error("Too many elements in array literal.");
+        }
+        for (Expr element : expr.elements) {
+            compile(element);
+        }
+        emitWithShort(OpCode.ARRAY, expr.elements.size());
+        return null;
+    }
+
+    @Override
+    public Void visitArrayAccessExpr(Expr.ArrayAccess expr) {
+        compile(expr.array);
+        compile(expr.index);
+        line = expr.bracket.line;
+        emit(OpCode.INDEX);
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if (expr.value == null) {
+            emit(OpCode.NIL);
+        } else if (expr.value.equals(true)) {
+            emit(OpCode.TRUE);
+        } else if (expr.value.equals(false)) {
+            emit(OpCode.FALSE);
+        } else {
+            emitWithShort(OpCode.CONSTANT, makeConstant(expr.value));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        int endJump = emitJump(expr.operator.type == TokenType.OR
+                ? OpCode.JUMP_IF_TRUE : OpCode.JUMP_IF_FALSE);
+        emit(OpCode.POP);
+        compile(expr.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitSetExpr(Expr.Set expr) {
+        compile(expr.object);
+        compile(expr.value);
+        line = expr.name.line;
+        emitWithShort(OpCode.SET_PROPERTY, makeConstant(expr.name.lexeme));
+        return null;
+    }
+
+    @Override
+    public Void visitThisExpr(Expr.This expr) {
+        namedVariable(expr.keyword, false);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        line = expr.operator.line;
+        emit(expr.operator.type == TokenType.BANG ? OpCode.NOT : OpCode.NEGATE);
+        return null;
+    }
+
+    @Override
+    public Void visitConditionalExpr(Expr.Conditional expr) {
+        compile(expr.expr);
+        int elseJump = emitJump(OpCode.POP_JUMP_IF_FALSE);
+        compile(expr.thenBranch);
+        int endJump = emitJump(OpCode.JUMP);
+        patchJump(elseJump);
+        compile(expr.elseBranch);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        namedVariable(expr.name, false);
+        return null;
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void function(Stmt.Function declaration, FunctionType type) {
+        ObjFunction function = new ObjFunction(declaration.name.lexeme);
+        FunctionState state = beginFunction(function, type);
+        beginScope();
+
+        if (declaration.params == null) {
+            function.isGetter = true;
+        } else {
+            function.arity = declaration.params.size();
+            for (Token param : declaration.params) {
+                addLocal(param);
+            }
+        }
+
+        for (Stmt statement : declaration.body) {
+            compile(statement);
+        }
+        endFunction();
+
+        line = declaration.name.line;
+        emitWithShort(OpCode.CLOSURE, makeConstant(function));
+        for (Upvalue upvalue : state.upvalues) {
+            emit(upvalue.isLocal ? (byte) 1 : (byte) 0);
+            emit((byte) upvalue.index);
+        }
+    }
+
+    private FunctionState beginFunction(ObjFunction function, FunctionType type) {
+        current = new FunctionState(current, function, type);
+
+        // Slot zero holds the callee, or the receiver inside methods.
+        String slotZero = type == FunctionType.METHOD ||
+                type == FunctionType.INITIALIZER ? "this" : "";
+        current.locals.add(new Local(slotZero, 0));
+        return current;
+    }
+
+    private ObjFunction endFunction() {
+        if (current.type == FunctionType.INITIALIZER) {
+            emitWithByte(OpCode.GET_LOCAL, 0);
+        } else {
+            emit(OpCode.NIL);
+        }
+        emit(OpCode.RETURN);
+
+        ObjFunction function = current.function;
+        function.upvalueCount = current.upvalues.size();
+        if (DEBUG && !hadError) {
+            function.chunk.disassemble(function.toString());
+        }
+        current = current.enclosing;
+        return function;
+    }
+
+    private void beginScope() {
+        current.scopeDepth++;
+    }
+
+    private void endScope() {
+        current.scopeDepth--;
+
+        List<Local> locals = current.locals;
+        while (!locals.isEmpty() &&
+                locals.get(locals.size() - 1).depth > current.scopeDepth) {
+            Local local = locals.remove(locals.size() - 1);
+            emit(local.isCaptured ? OpCode.CLOSE_UPVALUE : OpCode.POP);
+        }
+    }
+
+    private void declareVariable(Token name) {
+        if (current.scopeDepth == 0) return;
+        addLocal(name);
+    }
+
+    private void addLocal(Token name) {
+        if (current.locals.size() == MAX_LOCALS) {
+            error(name, "Too many local variables in function.");
+            return;
+        }
+        current.locals.add(new Local(name.lexeme, current.scopeDepth));
+    }
+
+    private void defineVariable(int global) {
+        // A local's value is already sitting in its stack slot.
+        if (current.scopeDepth > 0) return;
+        emitWithShort(OpCode.DEFINE_GLOBAL, global);
+    }
+
+    private void namedVariable(Token name, boolean assign) {
+        line = name.line;
+        int arg = resolveLocal(current, name.lexeme);
+        if (arg != -1) {
+            emitWithByte(assign ? OpCode.SET_LOCAL : OpCode.GET_LOCAL, arg);
+            return;
+        }
+
+        arg = resolveUpvalue(current, name);
+        if (arg != -1) {
+            emitWithByte(assign ? OpCode.SET_UPVALUE : OpCode.GET_UPVALUE, arg);
+            return;
+        }
+
+        emitWithShort(assign ? OpCode.SET_GLOBAL : OpCode.GET_GLOBAL,
+                makeConstant(name.lexeme));
+    }
+
+    private int resolveLocal(FunctionState state, String name) {
+        for (int i = state.locals.size() - 1; i >= 0; i--) {
+            if (state.locals.get(i).name.equals(name)) return i;
+        }
+        return -1;
+    }
+
+    private int resolveUpvalue(FunctionState state, Token name) {
+        if (state.enclosing == null) return -1;
+
+        int local = resolveLocal(state.enclosing, name.lexeme);
+        if (local != -1) {
+            state.enclosing.locals.get(local).isCaptured = true;
+            return addUpvalue(state, name, local, true);
+        }
+
+        int upvalue = resolveUpvalue(state.enclosing, name);
+        if (upvalue != -1) {
+            return addUpvalue(state, name, upvalue, false);
+        }
+
+        return -1;
+    }
+
+    private int addUpvalue(FunctionState state, Token name, int index,
+                           boolean isLocal) {
+        for (int i = 0; i < state.upvalues.size(); i++) {
+            Upvalue upvalue = state.upvalues.get(i);
+            if (upvalue.index == index && upvalue.isLocal == isLocal) return i;
+        }
+
+        if (state.upvalues.size() == MAX_UPVALUES) {
+            error(name, "Too many closure variables in function.");
+            return 0;
+        }
+
+        state.upvalues.add(new Upvalue(index, isLocal));
+        return state.upvalues.size() - 1;
+    }
+
+    private int makeConstant(Object value) {
+        int constant = current.function.chunk.addConstant(value);
+        if (constant > MAX_SHORT) {
+            error("Too many constants in one chunk.");
+            return 0;
+        }
+        return constant;
+    }
+
+    private void emit(byte op) {
+        current.function.chunk.write(op, line);
+    }
+
+    private void emitWithByte(byte op, int operand) {
+        emit(op);
+        emit((byte) operand);
+    }
+
+    private void emitWithShort(byte op, int operand) {
+        emit(op);
+        emit((byte) ((operand >> 8) & 0xff));
+        emit((byte) (operand & 0xff));
+    }
+
+    private int emitJump(byte op) {
+        emitWithShort(op, 0xffff);
+        return current.function.chunk.count - 2;
+    }
+
+    private void patchJump(int offset) {
+        Chunk chunk = current.function.chunk;
+        int jump = chunk.count - offset - 2;
+        if (jump > MAX_SHORT) {
+            error("Too much code to jump over.");
+        }
+        chunk.code[offset] = (byte) ((jump >> 8) & 0xff);
+        chunk.code[offset + 1] = (byte) (jump & 0xff);
+    }
+
+    private void emitLoop(int loopStart) {
+        int offset = current.function.chunk.count - loopStart + 3;
+        if (offset > MAX_SHORT) {
+            error("Loop body too large.");
+        }
+        emitWithShort(OpCode.LOOP, offset);
+    }
+
+    private void error(Token token, String message) {
+        System.err.println("[line " + token.line + "] Error at '" +
+                token.lexeme + "': " + message);
+        hadError = true;
+    }
+
+    private void error(String message) {
+        System.err.println("[line " + line + "] Error: " + message);
+        hadError = true;
+    }
+}
@@ -0,0 +1,12 @@
+package com.ericduncandev.lox.vm;
+
+import com.ericduncandev.lox.Stmt;
+
+import java.io.IOException;
+import java.util.List;
+
+// Reads, parses and resolves an imported file. Returns null when the
+// module had a syntax or resolution error, which has already been reported.
+public interface ModuleLoader {
+    List<Stmt> load(String path) throws IOException;
+}
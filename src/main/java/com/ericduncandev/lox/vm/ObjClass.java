@@ -0,0 +1,24 @@
+package com.ericduncandev.lox.vm;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Classes are instances of their metaclass, which holds the class methods.
+class ObjClass extends ObjInstance {
+    final String name;
+    final Map<String, ObjClosure> methods = new HashMap<>();
+
+    ObjClass(ObjClass metaclass, String name) {
+        super(metaclass);
+        this.name = name;
+    }
+
+    ObjClosure findMethod(String name) {
+        return methods.get(name);
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,21 @@
+package com.ericduncandev.lox.vm;
+
+class ObjFunction {
+    final String name;
+    final Chunk chunk = new Chunk();
+    int arity = 0;
+    int upvalueCount = 0;
+    // Methods declared without a parameter list run as soon as they are
+    // accessed, like the tree-walker's getters.
+    boolean isGetter = false;
+
+    ObjFunction(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public String toString() {
+        if (name == null) return "<script>";
+        return "<fn " + name + ">";
+    }
+}
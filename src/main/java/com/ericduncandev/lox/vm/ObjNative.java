@@ -0,0 +1,20 @@
+package com.ericduncandev.lox.vm;
+
+class ObjNative {
+    interface Body {
+        Object call(Object[] args, int first);
+    }
+
+    final int arity;
+    final Body body;
+
+    ObjNative(int arity, Body body) {
+        this.arity = arity;
+        this.body = body;
+    }
+
+    @Override
+    public String toString() {
+        return "<native fn>";
+    }
+}
@@ -0,0 +1,34 @@
+package com.ericduncandev.lox.vm;
+
+// A variable captured by a closure. While the variable is still live on
+// the VM stack the upvalue points at its slot; once the slot is popped
+// the value is copied into the upvalue itself.
+class ObjUpvalue {
+    private final Object[] stack;
+    final int slot;
+    private Object closed;
+    private boolean isOpen = true;
+    ObjUpvalue next;
+
+    ObjUpvalue(Object[] stack, int slot) {
+        this.stack = stack;
+        this.slot = slot;
+    }
+
+    Object get() {
+        return isOpen ? stack[slot] : closed;
+    }
+
+    void set(Object value) {
+        if (isOpen) {
+            stack[slot] = value;
+        } else {
+            closed = value;
+        }
+    }
+
+    void close() {
+        closed = stack[slot];
+        isOpen = false;
+    }
+}
@@ -0,0 +1,75 @@
+package com.ericduncandev.lox.vm;
+
+// Instruction set of the bytecode VM. Operands follow the opcode byte:
+// "u8" operands take one byte, "u16" operands two bytes (big-endian).
+final class OpCode {
+    static final byte CONSTANT = 0;        // u16 constant index
+    static final byte NIL = 1;
+    static final byte TRUE = 2;
+    static final byte FALSE = 3;
+    static final byte UNINITIALIZED = 4;   // value of "var x;"
+    static final byte POP = 5;
+    static final byte GET_LOCAL = 6;       // u8 slot
+    static final byte SET_LOCAL = 7;       // u8 slot
+    static final byte GET_GLOBAL = 8;      // u16 name constant
+    static final byte DEFINE_GLOBAL = 9;   // u16 name constant
+    static final byte SET_GLOBAL = 10;     // u16 name constant
+    static final byte GET_UPVALUE = 11;    // u8 upvalue index
+    static final byte SET_UPVALUE = 12;    // u8 upvalue index
+    static final byte GET_PROPERTY = 13;   // u16 name constant
+    static final byte SET_PROPERTY = 14;   // u16 name constant
+    static final byte GET_METHOD = 15;     // u16 name constant
+    static final byte EQUAL = 16;
+    static final byte NOT_EQUAL = 17;
+    static final byte GREATER = 18;
+    static final byte GREATER_EQUAL = 19;
+    static final byte LESS = 20;
+    static final byte LESS_EQUAL = 21;
+    static final byte ADD = 22;
+    static final byte SUBTRACT = 23;
+    static final byte MULTIPLY = 24;
+    static final byte DIVIDE = 25;
+    static final byte MODULO = 26;
+    static final byte BIT_OR = 27;
+    static final byte BIT_XOR = 28;
+    static final byte NOT = 29;
+    static final byte NEGATE = 30;
+    static final byte PRINT = 31;
+    static final byte JUMP = 32;           // u16 forward offset
+    static final byte JUMP_IF_FALSE = 33;  // u16 forward offset, keeps condition
+    static final byte JUMP_IF_TRUE = 34;   // u16 forward offset, keeps condition
+    static final byte POP_JUMP_IF_FALSE = 35; // u16 forward offset
+    static final byte LOOP = 36;           // u16 backward offset
+    static final byte CALL = 37;           // u8 argument count
+    static final byte INVOKE = 38;         // u8 argument count, after GET_METHOD
+    static final byte CLOSURE = 39;        // u16 function constant, then
+                                           // (u8 isLocal, u8 index) per upvalue
+    static final byte CLOSE_UPVALUE = 40;
+    static final byte RETURN = 41;
+    static final byte CLASS = 42;          // u16 name constant
+    static final byte METHOD = 43;         // u16 name constant
+    static final byte CLASS_METHOD = 44;   // u16 name constant
+    static final byte ARRAY = 45;          // u16 element count
+    static final byte INDEX = 46;
+    static final byte IMPORT = 47;         // u16 path constant
+
+    private static final String[] names = {
+            "CONSTANT", "NIL", "TRUE", "FALSE", "UNINITIALIZED", "POP",
+            "GET_LOCAL", "SET_LOCAL", "GET_GLOBAL", "DEFINE_GLOBAL",
+            "SET_GLOBAL", "GET_UPVALUE", "SET_UPVALUE", "GET_PROPERTY",
+            "SET_PROPERTY", "GET_METHOD", "EQUAL", "NOT_EQUAL", "GREATER",
+            "GREATER_EQUAL", "LESS", "LESS_EQUAL", "ADD", "SUBTRACT",
+            "MULTIPLY", "DIVIDE", "MODULO", "BIT_OR", "BIT_XOR", "NOT",
+            "NEGATE", "PRINT", "JUMP", "JUMP_IF_FALSE", "JUMP_IF_TRUE",
+            "POP_JUMP_IF_FALSE", "LOOP", "CALL", "INVOKE", "CLOSURE",
+            "CLOSE_UPVALUE", "RETURN", "CLASS", "METHOD", "CLASS_METHOD",
+            "ARRAY", "INDEX", "IMPORT"
+    };
+
+    private OpCode() {}
+
+    static String name(byte op) {
+        if (op < 0 || op >= names.length) return "UNKNOWN " + op;
+        return names[op];
+    }
+}
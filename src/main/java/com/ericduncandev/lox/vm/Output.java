@@ -0,0 +1,9 @@
+package com.ericduncandev.lox.vm;
+
+// Where print statements write to. Lines may be held back until flush(),
+// which has to be called before anything else is written to the console.
+public interface Output {
+    void println(String line);
+
+    void flush();
+}
@@ -0,0 +1,9 @@
+package com.ericduncandev.lox.vm;
+
+class RuntimeError extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    RuntimeError(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,704 @@
+package com.ericduncandev.lox.vm;
+
+import com.ericduncandev.lox.Expr;
+import com.ericduncandev.lox.Stmt;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+// Stack-based bytecode interpreter, selected with --engine=vm. It runs the
+// same language as the tree-walking Interpreter; values are represented
+// the same way (Double, String, Boolean, null and List for arrays) so
+// both engines print and compare them identically.
+public class VM {
+    public enum InterpretResult {
+        OK,
+        COMPILE_ERROR,
+        RUNTIME_ERROR
+    }
+
+    private static final int FRAMES_MAX = 1024;
+    private static final int STACK_MAX = FRAMES_MAX * 256;
+    private static final Object uninitialized = new Object() {
+        @Override
+        public String toString() { return "nil"; }
+    };
+
+    private static class CallFrame {
+        ObjClosure closure;
+        int ip;
+        // First stack slot of the frame, holding the callee or receiver.
+        int base;
+        // Where the return value goes. One below base for INVOKE, which
+        // keeps the method and its receiver on the stack side by side.
+        int returnTo;
+    }
+
+    private final Object[] stack = new Object[STACK_MAX];
+    private int sp = 0;
+    private final CallFrame[] frames = new CallFrame[FRAMES_MAX];
+    private int frameCount = 0;
+    private ObjUpvalue openUpvalues = null;
+
+    private final Map<String, Object> globals = new HashMap<>();
+    private final Set<String> modules = new HashSet<>();
+    private final ModuleLoader moduleLoader;
+    private final Output output;
+    private final boolean DEBUG;
+
+    public VM(ModuleLoader moduleLoader, Output output, boolean DEBUG) {
+        this.moduleLoader = moduleLoader;
+        this.output = output;
+        this.DEBUG = DEBUG;
+        for (int i = 0; i < FRAMES_MAX; i++) {
+            frames[i] = new CallFrame();
+        }
+
+        globals.put("clock", new ObjNative(0, (args, first) ->
+                (double) System.currentTimeMillis() / 1000.0));
+        globals.put("error", new ObjNative(1, (args, first) -> {
+            throw new RuntimeError(stringify(args[first]));
+        }));
+        globals.put("len", new ObjNative(1, (args, first) -> {
+            Object value = args[first];
+            if (value instanceof Double) {
+                throw new RuntimeError("Arguments to 'len' must be a string.");
+            } else if (value instanceof List) {
+                return (double) ((List<?>) value).size();
+            }
+            return (double) stringify(value).length();
+        }));
+    }
+
+    public InterpretResult interpret(List<Stmt> statements) {
+        ObjFunction function = new Compiler(DEBUG).compile(statements);
+        if (function == null) return InterpretResult.COMPILE_ERROR;
+
+        try {
+            execute(function);
+        } catch (RuntimeError error) {
+            reportRuntimeError(error);
+            return InterpretResult.RUNTIME_ERROR;
+        }
+        return InterpretResult.OK;
+    }
+
+    // Evaluates a REPL expression, returning its printed form, or null if
+    // it failed.
+    public String interpret(Expr expression) {
+        ObjFunction function = new Compiler(DEBUG).compileExpression(expression);
+        if (function == null) return null;
+
+        try {
+            return stringify(execute(function));
+        } catch (RuntimeError error) {
+            reportRuntimeError(error);
+            return null;
+        }
+    }
+
+    private Object execute(ObjFunction function) {
+        ObjClosure closure = new ObjClosure(function);
+        push(closure);
+        callClosure(closure, 0, sp - 1);
+        run(frameCount - 1);
+        return pop();
+    }
+
+    // Runs until the frame at depth exitFrame returns. Getters and imports
+    // re-enter the loop this way to run Lox code to completion.
+    private void run(int exitFrame) {
+        CallFrame frame = frames[frameCount - 1];
+        byte[] code = frame.closure.function.chunk.code;
+        List<Object> constants = frame.closure.function.chunk.constants;
+        int ip = frame.ip;
+        int base = frame.base;
+
+        try {
+            for (;;) {
+                byte instruction = code[ip++];
+                switch (instruction) {
+                    case OpCode.CONSTANT: {
+                        int index = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        stack[sp++] = constants.get(index);
+                        break;
+                    }
+                    case OpCode.NIL: stack[sp++] = null; break;
+                    case OpCode.TRUE: stack[sp++] = true; break;
+                    case OpCode.FALSE: stack[sp++] = false; break;
+                    case OpCode.UNINITIALIZED: stack[sp++] = uninitialized; break;
+                    case OpCode.POP: stack[--sp] = null; break;
+                    case OpCode.GET_LOCAL:
+                        stack[sp++] = stack[base + (code[ip++] & 0xff)];
+                        break;
+                    case OpCode.SET_LOCAL:
+                        stack[base + (code[ip++] & 0xff)] = stack[sp - 1];
+                        break;
+                    case OpCode.GET_GLOBAL: {
+                        String name = (String) constants.get(
+                                ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        ip += 2;
+                        Object value = globals.get(name);
+                        if (value == null && !globals.containsKey(name)) {
+                            throw new RuntimeError("Undefined variable '" + name + "'.");
+                        }
+                        stack[sp++] = value;
+                        break;
+                    }
+                    case OpCode.DEFINE_GLOBAL: {
+                        String name = (String) constants.get(
+                                ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        ip += 2;
+                        globals.put(name, stack[--sp]);
+                        stack[sp] = null;
+                        break;
+                    }
+                    case OpCode.SET_GLOBAL: {
+                        String name = (String) constants.get(
+                                ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        ip += 2;
+                        if (!globals.containsKey(name)) {
+                            throw new RuntimeError("Undefined variable '" + name + "'.");
+                        }
+                        globals.put(name, stack[sp - 1]);
+                        break;
+                    }
+                    case OpCode.GET_UPVALUE:
+                        stack[sp++] = frame.closure.upvalues[code[ip++] & 0xff].get();
+                        break;
+                    case OpCode.SET_UPVALUE:
+                        frame.closure.upvalues[code[ip++] & 0xff].set(stack[sp - 1]);
+                        break;
+                    case OpCode.GET_PROPERTY: {
+                        String name = (String) constants.get(
+                                ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        ip += 2;
+                        getProperty(name);
+                        break;
+                    }
+                    case OpCode.SET_PROPERTY: {
+                        String name = (String) constants.get(
+                                ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        ip += 2;
+                        Object object = stack[sp - 2];
+                        if (!(object instanceof ObjInstance)) {
+                            throw new RuntimeError("Only instances have fields.");
+                        }
+                        Object value = stack[--sp];
+                        ((ObjInstance) object).fields.put(name, value);
+                        stack[sp] = null;
+                        stack[sp - 1] = value;
+                        break;
+                    }
+                    case OpCode.GET_METHOD: {
+                        String name = (String) constants.get(
+                                ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        ip += 2;
+                        getMethod(name);
+                        break;
+                    }
+                    case OpCode.EQUAL: {
+                        Object b = stack[--sp];
+                        stack[sp - 1] = isEqual(stack[sp - 1], b);
+                        stack[sp] = null;
+                        break;
+                    }
+                    case OpCode.NOT_EQUAL: {
+                        Object b = stack[--sp];
+                        stack[sp - 1] = !isEqual(stack[sp - 1], b);
+                        stack[sp] = null;
+                        break;
+                    }
+                    case OpCode.GREATER: {
+                        checkNumberOperands();
+                        double b = (double) stack[--sp];
+                        stack[sp - 1] = (double) stack[sp - 1] > b;
+                        break;
+                    }
+                    case OpCode.GREATER_EQUAL: {
+                        checkNumberOperands();
+                        double b = (double) stack[--sp];
+                        stack[sp - 1] = (double) stack[sp - 1] >= b;
+                        break;
+                    }
+                    case OpCode.LESS: {
+                        checkNumberOperands();
+                        double b = (double) stack[--sp];
+                        stack[sp - 1] = (double) stack[sp - 1] < b;
+                        break;
+                    }
+                    case OpCode.LESS_EQUAL: {
+                        checkNumberOperands();
+                        double b = (double) stack[--sp];
+                        stack[sp - 1] = (double) stack[sp - 1] <= b;
+                        break;
+                    }
+                    case OpCode.ADD: {
+                        Object b = stack[--sp];
+                        Object a = stack[sp - 1];
+                        stack[sp] = null;
+                        if (a instanceof String || b instanceof String) {
+                            stack[sp - 1] = stringify(a) + stringify(b);
+                        } else if (a instanceof Double && b instanceof Double) {
+                            stack[sp - 1] = (double) a + (double) b;
+                        } else {
+                            throw new RuntimeError(
+                                    "Operands must be two numbers or two strings.");
+                        }
+                        break;
+                    }
+                    case OpCode.SUBTRACT: {
+                        checkNumberOperands();
+                        double b = (double) stack[--sp];
+                        stack[sp - 1] = (double) stack[sp - 1] - b;
+                        break;
+                    }
+                    case OpCode.MULTIPLY: {
+                        checkNumberOperands();
+                        double b = (double) stack[--sp];
+                        stack[sp - 1] = (double) stack[sp - 1] * b;
+                        break;
+                    }
+                    case OpCode.DIVIDE: {
+                        checkNumberOperands();
+                        double b = (double) stack[--sp];
+                        if (b == 0) {
+                            throw new RuntimeError(
+                                    "Attempted to divide by zero, which is not allowed.");
+                        }
+                        stack[sp - 1] = (double) stack[sp - 1] / b;
+                        break;
+                    }
+                    case OpCode.MODULO: {
+                        checkNumberOperands();
+                        double b = (double) stack[--sp];
+                        stack[sp - 1] = (double) stack[sp - 1] % b;
+                        break;
+                    }
+                    case OpCode.BIT_OR: {
+                        checkNumberOperands();
+                        int b = (int) (double) stack[--sp];
+                        stack[sp - 1] = (double) ((int) (double) stack[sp - 1] | b);
+                        break;
+                    }
+                    case OpCode.BIT_XOR: {
+                        checkNumberOperands();
+                        int b = (int) (double) stack[--sp];
+                        stack[sp - 1] = (double) ((int) (double) stack[sp - 1] ^ b);
+                        break;
+                    }
+                    case OpCode.NOT:
+                        stack[sp - 1] = !isTruthy(stack[sp - 1]);
+                        break;
+                    case OpCode.NEGATE:
+                        if (!(stack[sp - 1] instanceof Double)) {
+                            throw new RuntimeError("Operand must be a number.");
+                        }
+                        stack[sp - 1] = -(double) stack[sp - 1];
+                        break;
+                    case OpCode.PRINT:
+                        output.println(stringify(stack[--sp]));
+                        stack[sp] = null;
+                        break;
+                    case OpCode.JUMP:
+                        ip += 2 + (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        break;
+                    case OpCode.JUMP_IF_FALSE:
+                        if (!isTruthy(stack[sp - 1])) {
+                            ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        }
+                        ip += 2;
+                        break;
+                    case OpCode.JUMP_IF_TRUE:
+                        if (isTruthy(stack[sp - 1])) {
+                            ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        }
+                        ip += 2;
+                        break;
+                    case OpCode.POP_JUMP_IF_FALSE: {
+                        Object condition = stack[--sp];
+                        stack[sp] = null;
+                        if (!isTruthy(condition)) {
+                            ip += (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        }
+                        ip += 2;
+                        break;
+                    }
+                    case OpCode.LOOP:
+                        ip -= (((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff)) - 2;
+                        break;
+                    case OpCode.CALL:
+                    case OpCode.INVOKE: {
+                        int argCount = code[ip++] & 0xff;
+                        frame.ip = ip;
+                        int calleeSlot = sp - argCount - 1;
+                        if (instruction == OpCode.INVOKE) {
+                            // GET_METHOD left either [method, receiver] or
+                            // [value, EMPTY] below the arguments.
+                            Object method = stack[calleeSlot - 1];
+                            if (method instanceof ObjClosure) {
+                                callClosure((ObjClosure) method, argCount, calleeSlot - 1);
+                            } else {
+                                System.arraycopy(stack, calleeSlot + 1,
+                                        stack, calleeSlot, argCount);
+                                stack[--sp] = null;
+                                callValue(stack[calleeSlot - 1], argCount, calleeSlot - 1);
+                            }
+                        } else {
+                            callValue(stack[calleeSlot], argCount, calleeSlot);
+                        }
+                        if (frames[frameCount - 1] != frame) {
+                            frame = frames[frameCount - 1];
+                            code = frame.closure.function.chunk.code;
+                            constants = frame.closure.function.chunk.constants;
+                            ip = frame.ip;
+                            base = frame.base;
+                        }
+                        break;
+                    }
+                    case OpCode.CLOSURE: {
+                        ObjFunction function = (ObjFunction) constants.get(
+                                ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        ip += 2;
+                        ObjClosure closure = new ObjClosure(function);
+                        for (int i = 0; i < closure.upvalues.length; i++) {
+                            boolean isLocal = code[ip++] == 1;
+                            int index = code[ip++] & 0xff;
+                            closure.upvalues[i] = isLocal
+                                    ? captureUpvalue(base + index)
+                                    : frame.closure.upvalues[index];
+                        }
+                        stack[sp++] = closure;
+                        break;
+                    }
+                    case OpCode.CLOSE_UPVALUE:
+                        closeUpvalues(sp - 1);
+                        stack[--sp] = null;
+                        break;
+                    case OpCode.RETURN: {
+                        Object result = stack[sp - 1];
+                        closeUpvalues(base);
+                        int returnTo = frame.returnTo;
+                        for (int i = returnTo; i < sp; i++) stack[i] = null;
+                        sp = returnTo;
+                        stack[sp++] = result;
+                        frameCount--;
+                        if (frameCount == exitFrame) return;
+
+                        frame = frames[frameCount - 1];
+                        code = frame.closure.function.chunk.code;
+                        constants = frame.closure.function.chunk.constants;
+                        ip = frame.ip;
+                        base = frame.base;
+                        break;
+                    }
+                    case OpCode.CLASS: {
+                        String name = (String) constants.get(
+                                ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        ip += 2;
+                        ObjClass metaclass = new ObjClass(null, name + " metaclass");
+                        stack[sp++] = new ObjClass(metaclass, name);
+                        break;
+                    }
+                    case OpCode.METHOD:
+                    case OpCode.CLASS_METHOD: {
+                        String name = (String) constants.get(
+                                ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        ip += 2;
+                        ObjClass klass = (ObjClass) stack[sp - 2];
+                        if (instruction == OpCode.CLASS_METHOD) klass = klass.klass;
+                        klass.methods.put(name, (ObjClosure) stack[--sp]);
+                        stack[sp] = null;
+                        break;
+                    }
+                    case OpCode.ARRAY: {
+                        int count = ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff);
+                        ip += 2;
+                        List<Object> elements = new ArrayList<>(count);
+                        for (int i = sp - count; i < sp; i++) {
+                            elements.add(stack[i]);
+                            stack[i] = null;
+                        }
+                        sp -= count;
+                        stack[sp++] = elements;
+                        break;
+                    }
+                    case OpCode.INDEX: {
+                        Object index = stack[--sp];
+                        stack[sp] = null;
+                        stack[sp - 1] = index(stack[sp - 1], index);
+                        break;
+                    }
+                    case OpCode.IMPORT: {
+                        String path = (String) constants.get(
+                                ((code[ip] & 0xff) << 8) | (code[ip + 1] & 0xff));
+                        ip += 2;
+                        frame.ip = ip;
+                        importModule(path);
+                        break;
+                    }
+                    default:
+                        throw new RuntimeError("Unknown opcode " + instruction + ".");
+                }
+            }
+        } catch (RuntimeError error) {
+            frame.ip = ip;
+            throw error;
+        }
+    }
+
+    private void callValue(Object callee, int argCount, int calleeSlot) {
+        if (callee instanceof ObjClosure) {
+            callClosure((ObjClosure) callee, argCount, calleeSlot);
+        } else if (callee instanceof ObjBoundMethod) {
+            ObjBoundMethod bound = (ObjBoundMethod) callee;
+            stack[calleeSlot] = bound.receiver;
+            callClosure(bound.method, argCount, calleeSlot);
+        } else if (callee instanceof ObjClass) {
+            ObjClass klass = (ObjClass) callee;
+            ObjClosure initializer = klass.findMethod("init");
+            if (initializer == null) checkArity(0, argCount);
+            stack[calleeSlot] = new ObjInstance(klass);
+            if (initializer != null) {
+                callClosure(initializer, argCount, calleeSlot);
+            }
+        } else if (callee instanceof ObjNative) {
+            ObjNative function = (ObjNative) callee;
+            checkArity(function.arity, argCount);
+            Object result = function.body.call(stack, calleeSlot + 1);
+            for (int i = calleeSlot; i < sp; i++) stack[i] = null;
+            sp = calleeSlot;
+            stack[sp++] = result;
+        } else {
+            throw new RuntimeError("Can only call functions and classes.");
+        }
+    }
+
+    private void callClosure(ObjClosure closure, int argCount, int returnTo) {
+        checkArity(closure.function.arity, argCount);
+        if (frameCount == FRAMES_MAX) {
+            throw new RuntimeError("Stack overflow.");
+        }
+
+        CallFrame frame = frames[frameCount++];
+        frame.closure = closure;
+        frame.ip = 0;
+        frame.base = sp - argCount - 1;
+        frame.returnTo = returnTo;
+    }
+
+    private void checkArity(int arity, int argCount) {
+        if (argCount != arity) {
+            throw new RuntimeError("Expected " + arity +
+                    " arguments but got " + argCount + ".");
+        }
+    }
+
+    // Replaces the instance on top of the stack with the named property.
+    private void getProperty(String name) {
+        Object object = stack[sp - 1];
+        if (!(object instanceof ObjInstance)) {
+            throw new RuntimeError("Only instances have properties.");
+        }
+
+        ObjInstance instance = (ObjInstance) object;
+        Object value = instance.fields.get(name);
+        if (value != null || instance.fields.containsKey(name)) {
+            stack[sp - 1] = value;
+            return;
+        }
+
+        ObjClosure method = findMethod(instance, name);
+        if (method.function.isGetter) {
+            callGetter(method);
+        } else {
+            stack[sp - 1] = new ObjBoundMethod(instance, method);
+        }
+    }
+
+    // Like getProperty, but leaves [method, receiver] for INVOKE when the
+    // property is a method, so no bound method has to be allocated.
+    // Anything else is resolved now and left as [value, EMPTY].
+    private void getMethod(String name) {
+        Object object = stack[sp - 1];
+        if (!(object instanceof ObjInstance)) {
+            throw new RuntimeError("Only instances have properties.");
+        }
+
+        ObjInstance instance = (ObjInstance) object;
+        Object value = instance.fields.get(name);
+        if (value != null || instance.fields.containsKey(name)) {
+            stack[sp - 1] = value;
+            stack[sp++] = null;
+            return;
+        }
+
+        ObjClosure method = findMethod(instance, name);
+        if (method.function.isGetter) {
+            callGetter(method);
+            stack[sp++] = null;
+            return;
+        }
+        stack[sp - 1] = method;
+        stack[sp++] = instance;
+    }
+
+    private ObjClosure findMethod(ObjInstance instance, String name) {
+        ObjClosure method = instance.klass == null
+                ? null : instance.klass.findMethod(name);
+        if (method == null) {
+            throw new RuntimeError("Undefined property '" + name + "'.");
+        }
+        return method;
+    }
+
+    private void callGetter(ObjClosure getter) {
+        // The receiver on top of the stack becomes the getter's "this".
+        callClosure(getter, 0, sp - 1);
+        run(frameCount - 1);
+    }
+
+    private Object index(Object target, Object index) {
+        if (!(index instanceof Double)) {
+            throw new RuntimeError("Index must be a number.");
+        }
+
+        int intIndex = ((Double) index).intValue();
+        if (target instanceof List) {
+            List<?> list = (List<?>) target;
+            if (intIndex < 0 || intIndex >= list.size()) {
+                throw new RuntimeError("Array index out of bounds.");
+            }
+            return list.get(intIndex);
+        } else if (target instanceof String) {
+            String str = (String) target;
+            if (intIndex < 0 || intIndex >= str.length()) {
+                throw new RuntimeError("String index out of bounds.");
+            }
+            return String.valueOf(str.charAt(intIndex));
+        }
+
+        throw new RuntimeError("Can only index into arrays or strings.");
+    }
+
+    private void importModule(String path) {
+        if (!modules.add(path)) return;
+
+        List<Stmt> statements;
+        try {
+            statements = moduleLoader.load(path);
+        } catch (IOException e) {
+            throw new RuntimeError("Could not import module '" + path + "'.");
+        }
+        if (statements == null) {
+            throw new RuntimeError("Could not import module '" + path + "'.");
+        }
+
+        ObjFunction function = new Compiler(DEBUG).compile(statements);
+        if (function == null) {
+            throw new RuntimeError("Could not compile module '" + path + "'.");
+        }
+        execute(function);
+    }
+
+    private ObjUpvalue captureUpvalue(int slot) {
+        ObjUpvalue previous = null;
+        ObjUpvalue upvalue = openUpvalues;
+        while (upvalue != null && upvalue.slot > slot) {
+            previous = upvalue;
+            upvalue = upvalue.next;
+        }
+        if (upvalue != null && upvalue.slot == slot) return upvalue;
+
+        ObjUpvalue created = new ObjUpvalue(stack, slot);
+        created.next = upvalue;
+        if (previous == null) {
+            openUpvalues = created;
+        } else {
+            previous.next = created;
+        }
+        return created;
+    }
+
+    private void closeUpvalues(int last) {
+        while (openUpvalues != null && openUpvalues.slot >= last) {
+            openUpvalues.close();
+            openUpvalues = openUpvalues.next;
+        }
+    }
+
+    private void checkNumberOperands() {
+        if (stack[sp - 1] instanceof Double && stack[sp - 2] instanceof Double) return;
+        throw new RuntimeError("Operands must be numbers.");
+    }
+
+    private void push(Object value) {
+        stack[sp++] = value;
+    }
+
+    private Object pop() {
+        Object value = stack[--sp];
+        stack[sp] = null;
+        return value;
+    }
+
+    private void reportRuntimeError(RuntimeError error) {
+        int line = 0;
+        if (frameCount > 0) {
+            CallFrame frame = frames[frameCount - 1];
+            line = frame.closure.function.chunk.lines[Math.max(frame.ip - 1, 0)];
+        }
+        output.flush();
+        System.err.println(error.getMessage() + "\n[line " + line + "]");
+
+        for (int i = 0; i < sp; i++) stack[i] = null;
+        sp = 0;
+        frameCount = 0;
+        openUpvalues = null;
+    }
+
+    private static boolean isTruthy(Object object) {
+        if (object == null) return false;
+        if (object instanceof Boolean) return (boolean) object;
+        return true;
+    }
+
+    private static boolean isEqual(Object a, Object b) {
+        if (a == null && b == null) return true;
+        if (a == null) return false;
+
+        return a.equals(b);
+    }
+
+    static String stringify(Object object) {
+        if (object == null) return "nil";
+
+        if (object instanceof Double) {
+            String text = object.toString();
+            if (text.endsWith(".0")) {
+                text = text.substring(0, text.length() - 2);
+            }
+            return text;
+        }
+
+        if (object instanceof List) {
+            List<?> list = (List<?>) object;
+            StringBuilder builder = new StringBuilder();
+            builder.append("[");
+            for (int i = 0; i < list.size(); i++) {
+                if (i > 0) builder.append(", ");
+                builder.append(stringify(list.get(i)));
+            }
+            builder.append("]");
+            return builder.toString();
+        }
+
+        return object.toString();
+    }
+}
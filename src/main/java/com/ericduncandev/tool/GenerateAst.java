@@ -13,36 +13,48 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
-                "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "Get      : Expr object, Token name",
+                "Assign   : Token name, Expr value" +
+                          " | int depth, int slot = -1, boolean isGlobal = true, boolean captured",
+                "Binary   : Expr left, Token operator, Expr right" +
+                          " | Specialization specialization = Specialization.UNINITIALIZED",
+                "Call     : Expr callee, Token paren, List<Expr> arguments" +
+                          " | InlineCache cache, InlinedCall inlined, LinkedCallSite site",
+                "Get      : Expr object, Token name | InlineCache cache",
                 "Array    : List<Expr> elements",
                 "ArrayAccess : Expr array, Token bracket, Expr index",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
-                "Logical  : Expr left, Token operator, Expr right",
-                "Set      : Expr object, Token name, Expr value",
-                "This     : Token keyword",
-                "Unary    : Token operator, Expr right",
+                "Logical  : Expr left, Token operator, Expr right" +
+                          " | Specialization specialization = Specialization.UNINITIALIZED",
+                "Set      : Expr object, Token name, Expr value" +
+                          " | InlineCache cache",
+                "This     : Token keyword" +
+                          " | int depth, int slot = -1, boolean isGlobal = true, boolean captured",
+                "Unary    : Token operator, Expr right" +
+                          " | Specialization specialization = Specialization.UNINITIALIZED",
                 "Conditional  : Expr expr, Expr thenBranch, Expr elseBranch",
-                "Variable : Token name"
+                "Variable : Token name" +
+                          " | int depth, int slot = -1, boolean isGlobal = true, boolean captured"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
+                "Block      : List<Stmt> statements | int locals, int frameSize, Environment spare",
                 "Break      : ",
-                "Class      : Token name, List<Stmt.Function> methods, List<Stmt.Function> classMethods",
+                "Class      : Token name, List<Stmt.Function> methods, List<Stmt.Function> classMethods" +
+                            " | int slot, boolean isGlobal = true, boolean captured",
                 "Expression : Expr expression",
                 "Function   : Token name, List<Token> params," +
-                            " List<Stmt> body",
+                            " List<Stmt> body | int frameSize, int locals, int[] capturedSlots," +
+                            " FunctionProfile profile, ClosureCompiler.StmtNode tieredBody," +
+                            " int slot, boolean isGlobal = true, boolean captured",
                 "If         : Expr condition, Stmt thenBranch," +
                             " Stmt elseBranch",
                 "Print      : Expr expression",
                 "Import     : Token keyword, Token path",
                 "Export     : Token keyword, Stmt declaration",
                 "Return     : Token keyword, Expr value",
-                "Var        : Token name, Expr initializer",
+                "Var        : Token name, Expr initializer" +
+                            " | int slot, boolean isGlobal = true, boolean captured",
                 "While      : Expr condition, Stmt body"
         ));
     }
@@ -57,18 +69,25 @@ public class GenerateAst {
         writer.println();
         writer.println("import java.util.List;");
         writer.println();
-        writer.println("abstract class " + baseName + " {");
+        writer.println("public abstract class " + baseName + " {");
         defineVisitor(writer, baseName, types);
         // The AST classes.
         for (String type : types) {
             String className = type.split(":")[0].trim();
             String fields = type.split(":")[1].trim();
-            defineType(writer, baseName, className, fields);
+            // Fields after a '|' are not constructor parameters but mutable
+            // state the interpreter keeps on the node.
+            String state = "";
+            if (fields.contains("|")) {
+                state = fields.substring(fields.indexOf("|") + 1).trim();
+                fields = fields.substring(0, fields.indexOf("|")).trim();
+            }
+            defineType(writer, baseName, className, fields, state);
 
         }
         // The base accept() method.
         writer.println();
-        writer.println("  abstract <R> R accept(Visitor<R> visitor);");
+        writer.println("  public abstract <R> R accept(Visitor<R> visitor);");
 
         writer.println("}");
         writer.close();
@@ -76,7 +95,7 @@ public class GenerateAst {
 
     private static void defineVisitor(
             PrintWriter writer, String baseName, List<String> types) {
-        writer.println("  interface Visitor<R> {");
+        writer.println("  public interface Visitor<R> {");
 
         for (String type : types) {
             String typeName = type.split(":")[0].trim();
@@ -89,8 +108,8 @@ public class GenerateAst {
 
     private static void defineType(
             PrintWriter writer, String baseName,
-            String className, String fieldList) {
-        writer.println("  static class " + className + " extends " +
+            String className, String fieldList, String stateList) {
+        writer.println("  public static class " + className + " extends " +
                 baseName + " {");
 
         // Constructor.
@@ -114,7 +133,7 @@ public class GenerateAst {
         // Visitor pattern.
         writer.println();
         writer.println("    @Override");
-        writer.println("    <R> R accept(Visitor<R> visitor) {");
+        writer.println("    public <R> R accept(Visitor<R> visitor) {");
         writer.println("      return visitor.visit" +
                 className + baseName + "(this);");
         writer.println("    }");
@@ -122,7 +141,14 @@ public class GenerateAst {
         // Fields.
         writer.println();
         for (String field : fields) {
-            writer.println("    final " + field + ";");
+            writer.println("    public final " + field + ";");
+        }
+
+        if (!stateList.isEmpty()) {
+            writer.println();
+            for (String field : stateList.split(", ")) {
+                writer.println("    " + field + ";");
+            }
         }
 
         writer.println("  }");
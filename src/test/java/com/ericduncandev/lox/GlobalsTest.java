@@ -0,0 +1,32 @@
+package com.ericduncandev.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GlobalsTest {
+    @Test
+    void moreGlobalsThanTheInitialTable() throws Exception {
+        StringBuilder source = new StringBuilder();
+        for (int i = 0; i < 70; i++) {
+            source.append("var g").append(i).append(" = ").append(i).append(";\n");
+        }
+        source.append("print g0 + g64 + g69;\n");
+
+        for (String engine : new String[] {"--engine=tree", "--engine=closure", "--engine=vm"}) {
+            LoxRunner.Result result = LoxRunner.run(source.toString(), engine);
+            assertEquals("133\n", result.out, engine);
+            assertEquals("", result.err, engine);
+        }
+    }
+
+    @Test
+    void globalDefinedAfterAFunctionThatUsesIt() throws Exception {
+        LoxRunner.Result result = LoxRunner.run(
+                "fun show() { print later; }\n" +
+                "var later = \"ok\";\n" +
+                "show();\n");
+        assertEquals("ok\n", result.out);
+        assertEquals("", result.err);
+    }
+}
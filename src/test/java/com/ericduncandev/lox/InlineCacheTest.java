@@ -0,0 +1,61 @@
+package com.ericduncandev.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class InlineCacheTest {
+    private static LoxRunner.Result stats(String source) throws Exception {
+        return LoxRunner.run(source, "--ic-stats");
+    }
+
+    private static void assertSite(LoxRunner.Result result, int line, String kind,
+                                   String name, String state, int hits, int misses) {
+        String site = String.format("%-11s %-4s %-16s %-13s hits %d, misses %d",
+                "[line " + line + "]", kind, name, state, hits, misses);
+        assertTrue(result.err.contains(site), "expected \"" + site + "\" in\n" + result.err);
+    }
+
+    @Test
+    void oneShapeMissesOnceThenHits() throws Exception {
+        LoxRunner.Result result = stats(
+                "class P { init() { this.x = 1; } get() { return this.x; } }\n" +
+                "var p = P();\n" +
+                "var total = 0;\n" +
+                "for (var i = 0; i < 5; i = i + 1) {\n" +
+                "  total = total + p.x + p.get();\n" +
+                "}\n" +
+                "print total;\n");
+        assertEquals("10\n", result.out);
+        assertSite(result, 5, "get", "x", "MONOMORPHIC", 4, 1);
+        assertSite(result, 5, "call", "get", "MONOMORPHIC", 4, 1);
+        assertSite(result, 1, "get", "x", "MONOMORPHIC", 4, 1);
+    }
+
+    @Test
+    void eachNewShapeIsAMissUntilTheSiteGivesUp() throws Exception {
+        // Fields added in different orders give instances of one class
+        // different shapes.
+        LoxRunner.Result result = stats(
+                "class O {}\n" +
+                "fun make(n) {\n" +
+                "  var o = O();\n" +
+                "  if (n == 0) { o.x = 0; }\n" +
+                "  if (n == 1) { o.a = 0; o.x = 1; }\n" +
+                "  if (n == 2) { o.b = 0; o.x = 2; }\n" +
+                "  if (n == 3) { o.c = 0; o.x = 3; }\n" +
+                "  if (n == 4) { o.d = 0; o.x = 4; }\n" +
+                "  return o;\n" +
+                "}\n" +
+                "var few = [make(0), make(1), make(0), make(1)];\n" +
+                "var many = [make(0), make(1), make(2), make(3), make(4), make(0)];\n" +
+                "var total = 0;\n" +
+                "for (var i = 0; i < 4; i = i + 1) total = total + few[i].x;\n" +
+                "for (var i = 0; i < 6; i = i + 1) total = total + many[i].x;\n" +
+                "print total;\n");
+        assertEquals("12\n", result.out);
+        assertSite(result, 14, "get", "x", "POLYMORPHIC", 2, 2);
+        assertSite(result, 15, "get", "x", "MEGAMORPHIC", 0, 6);
+    }
+}
@@ -0,0 +1,45 @@
+package com.ericduncandev.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LinkedCallSiteTest {
+    // One call site that sees more callees than a site chains guards for.
+    private static final String POLYMORPHIC =
+            "fun a(x) { return x + 1; }\n" +
+            "fun b(x) { return x + 2; }\n" +
+            "fun c(x) { return x + 3; }\n" +
+            "fun d(x) { return x + 4; }\n" +
+            "fun e(x) { return x + 5; }\n" +
+            "class Box { init(x) { this.x = x; } }\n" +
+            "var callees = [a, b, c, d, e, len, a];\n" +
+            "for (var round = 0; round < 2; round = round + 1) {\n" +
+            "  for (var i = 0; i < 7; i = i + 1) {\n" +
+            "    var f = callees[i];\n" +
+            "    if (f == len) print f(\"four\"); else print f(10);\n" +
+            "  }\n" +
+            "  print Box(round).x;\n" +
+            "}\n";
+
+    @Test
+    void matchesTheInterpreterDispatch() throws Exception {
+        LoxRunner.Result plain = LoxRunner.run(POLYMORPHIC);
+        LoxRunner.Result linked = LoxRunner.run(POLYMORPHIC, "--method-handles");
+        assertEquals("11\n12\n13\n14\n15\n4\n11\n0\n11\n12\n13\n14\n15\n4\n11\n1\n", plain.out);
+        assertEquals(plain.out, linked.out);
+        assertEquals("", linked.err);
+    }
+
+    @Test
+    void wrongArityIsStillReported() throws Exception {
+        LoxRunner.Result result = LoxRunner.run(
+                "fun one(x) { return x; }\n" +
+                "print one(1);\n" +
+                "print one(1, 2);\n",
+                "--method-handles");
+        assertEquals("1\n", result.out);
+        assertEquals("Expected 1 arguments but got 2.\n[line 3]\n", result.err);
+        assertEquals(70, result.exitCode);
+    }
+}
@@ -0,0 +1,62 @@
+package com.ericduncandev.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LoopInvariantsTest {
+    @Test
+    void getterAssigningAVariableIsNotHoistedOver() throws Exception {
+        LoxRunner.Result result = LoxRunner.run(
+                "var counter = 0;\n" +
+                "class Ticker {\n" +
+                "  tick { counter = counter + 1; return counter; }\n" +
+                "}\n" +
+                "var t = Ticker();\n" +
+                "var arr = [10, 20, 30, 40];\n" +
+                "var i = 0;\n" +
+                "while (i < 3) {\n" +
+                "  t.tick;\n" +
+                "  print arr[counter] + 0;\n" +
+                "  i = i + 1;\n" +
+                "}\n");
+        assertEquals("20\n30\n40\n", result.out);
+        assertEquals("", result.err);
+    }
+
+    @Test
+    void getterAssigningAFieldIsNotHoistedOver() throws Exception {
+        LoxRunner.Result result = LoxRunner.run(
+                "class Box {\n" +
+                "  init() { this.x = 0; }\n" +
+                "  bump { this.x = this.x + 1; return this.x; }\n" +
+                "}\n" +
+                "var o = Box();\n" +
+                "var i = 0;\n" +
+                "while (i < 3) {\n" +
+                "  o.bump;\n" +
+                "  print o.x * 10;\n" +
+                "  i = i + 1;\n" +
+                "}\n");
+        assertEquals("10\n20\n30\n", result.out);
+        assertEquals("", result.err);
+    }
+
+    @Test
+    void nilIsNotTheSameAsAVariableNamedNull() throws Exception {
+        LoxRunner.Result result = LoxRunner.run(
+                "var null = 1;\n" +
+                "class Box {\n" +
+                "  init() { this.x = 1; }\n" +
+                "}\n" +
+                "var o = Box();\n" +
+                "var i = 0;\n" +
+                "while (i < 2) {\n" +
+                "  print o.x == nil;\n" +
+                "  print o.x == null;\n" +
+                "  i = i + 1;\n" +
+                "}\n");
+        assertEquals("false\ntrue\nfalse\ntrue\n", result.out);
+        assertEquals("", result.err);
+    }
+}
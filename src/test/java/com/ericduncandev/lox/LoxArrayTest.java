@@ -0,0 +1,55 @@
+package com.ericduncandev.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LoxArrayTest {
+    @Test
+    void numbersReadBackAsDoubles() {
+        LoxArray array = new LoxArray(3);
+        assertEquals(0.0, array.get(2));
+        array.store(0, 1.5);
+        array.store(1, -2.0);
+        assertEquals(Arrays.asList(1.5, -2.0, 0.0), array);
+        assertEquals(Double.class, array.get(0).getClass());
+    }
+
+    @Test
+    void firstNonNumberKeepsTheNumbersStoredSoFar() {
+        LoxArray array = new LoxArray(4);
+        array.store(0, 1.0);
+        array.store(1, 2.0);
+        array.store(2, "three");
+        array.store(3, null);
+        assertEquals(Arrays.asList(1.0, 2.0, "three", null), array);
+
+        // Numbers still go in once the array is generic.
+        array.store(3, 4.0);
+        assertEquals(4.0, array.get(3));
+        assertEquals(2.0, array.set(1, true));
+        assertEquals(Arrays.asList(1.0, true, "three", 4.0), array);
+    }
+
+    @Test
+    void behavesTheSameFromLox() throws Exception {
+        String source =
+                "var numbers = [1, 2.5, -3];\n" +
+                "var mixed = [1, \"two\", nil, [3]];\n" +
+                "print numbers;\n" +
+                "print mixed;\n" +
+                "print numbers[1] + numbers[2];\n" +
+                "print mixed[0] + 1;\n" +
+                "print len(numbers) + len(mixed);\n" +
+                "print numbers == [1, 2.5, -3];\n" +
+                "print mixed[3] == [3];\n";
+        for (String engine : new String[] {"--engine=tree", "--engine=closure", "--engine=vm"}) {
+            LoxRunner.Result result = LoxRunner.run(source, engine);
+            assertEquals("[1, 2.5, -3]\n[1, two, nil, [3]]\n-0.5\n2\n7\ntrue\ntrue\n",
+                    result.out, engine);
+            assertEquals("", result.err, engine);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.ericduncandev.lox;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs Lox in a JVM of its own, the way the command line does, since Lox
+// keeps its interpreter and error flags in statics.
+final class LoxRunner {
+    static final class Result {
+        final int exitCode;
+        final String out;
+        final String err;
+
+        Result(int exitCode, String out, String err) {
+            this.exitCode = exitCode;
+            this.out = out;
+            this.err = err;
+        }
+    }
+
+    private LoxRunner() {}
+
+    // Runs source as a script file.
+    static Result run(String source, String... flags) throws IOException, InterruptedException {
+        Path script = Files.createTempFile("test", ".lox");
+        try {
+            Files.write(script, source.getBytes(StandardCharsets.UTF_8));
+            List<String> arguments = new ArrayList<>();
+            for (String flag : flags) arguments.add(flag);
+            arguments.add(script.toString());
+            return execute(arguments, "");
+        } finally {
+            Files.delete(script);
+        }
+    }
+
+    // Types input into the REPL, a line at a time.
+    static Result repl(String input, String... flags) throws IOException, InterruptedException {
+        List<String> arguments = new ArrayList<>();
+        for (String flag : flags) arguments.add(flag);
+        return execute(arguments, input);
+    }
+
+    // Starts source as a script with stderr merged into stdout, for tests
+    // that read output as it comes or care how the two interleave. The
+    // caller waits for the process or destroys it.
+    static Process start(String source, String... flags) throws IOException {
+        Path script = Files.createTempFile("test", ".lox");
+        script.toFile().deleteOnExit();
+        Files.write(script, source.getBytes(StandardCharsets.UTF_8));
+        List<String> arguments = new ArrayList<>();
+        for (String flag : flags) arguments.add(flag);
+        arguments.add(script.toString());
+        return new ProcessBuilder(command(arguments)).redirectErrorStream(true).start();
+    }
+
+    private static List<String> command(List<String> arguments) {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Lox.class.getName());
+        command.addAll(arguments);
+        return command;
+    }
+
+    private static Result execute(List<String> arguments, String input)
+            throws IOException, InterruptedException {
+        Process process = new ProcessBuilder(command(arguments)).start();
+        try (OutputStream stdin = process.getOutputStream()) {
+            stdin.write(input.getBytes(StandardCharsets.UTF_8));
+        }
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        Thread drainErr = new Thread(() -> copy(process.getErrorStream(), err));
+        drainErr.start();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        copy(process.getInputStream(), out);
+        drainErr.join();
+        int exitCode = process.waitFor();
+        return new Result(exitCode, out.toString("UTF-8"), err.toString("UTF-8"));
+    }
+
+    private static void copy(InputStream from, OutputStream to) {
+        byte[] buffer = new byte[8192];
+        try {
+            for (int read; (read = from.read(buffer)) != -1; ) {
+                to.write(buffer, 0, read);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.ericduncandev.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OptimizerTest {
+    private static final String SOURCE =
+            "print \"start\";\n" +
+            "print 1 + 2 * 3;\n" +
+            "if (false) print \"dead\"; else print \"live\";\n" +
+            "print \"a\" + \"b\";\n" +
+            "if (false) print nil + 1;\n" +
+            "print 1 / 0;\n" +
+            "print \"unreached\";\n";
+
+    @Test
+    void foldsConstantsAndDropsDeadBranches() throws Exception {
+        LoxRunner.Result result = LoxRunner.run(SOURCE, "--dump-ast");
+        String after = result.out.substring(result.out.indexOf("== after optimization =="));
+        assertTrue(after.contains("(print 7.0)\n"), after);
+        assertTrue(after.contains("(print live)\n"), after);
+        assertTrue(after.contains("(print ab)\n"), after);
+        assertFalse(after.contains("dead"), after);
+        assertFalse(after.contains("nil"), after);
+    }
+
+    @Test
+    void divisionByZeroIsLeftForRunTime() throws Exception {
+        LoxRunner.Result dump = LoxRunner.run(SOURCE, "--dump-ast");
+        String after = dump.out.substring(dump.out.indexOf("== after optimization =="));
+        assertTrue(after.contains("(print (/ 1.0 0.0))\n"), after);
+
+        for (String engine : new String[] {"--engine=tree", "--engine=closure", "--engine=vm"}) {
+            LoxRunner.Result result = LoxRunner.run(SOURCE, engine);
+            assertEquals("start\n7\nlive\nab\n", result.out, engine);
+            assertEquals("Attempted to divide by zero, which is not allowed.\n[line 6]\n",
+                    result.err, engine);
+            assertEquals(70, result.exitCode, engine);
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.ericduncandev.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OutputSinkTest {
+    @Test
+    void flushZeroWritesEachLineAsItComes() {
+        assertTimeoutPreemptively(Duration.ofSeconds(20), () -> {
+            Process process = LoxRunner.start("print \"first\";\nwhile (true) {}\n", "--flush=0");
+            try {
+                BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+                assertEquals("first", reader.readLine());
+            } finally {
+                process.destroyForcibly();
+            }
+        });
+    }
+
+    @Test
+    void thresholdDoesNotChangeTheOutput() throws Exception {
+        String source = "for (var i = 0; i < 1000; i = i + 1) print i;\n";
+        String expected = LoxRunner.run(source).out;
+        for (String flush : new String[] {"--flush=0", "--flush=7", "--flush=200000"}) {
+            assertEquals(expected, LoxRunner.run(source, flush).out, flush);
+        }
+    }
+
+    @Test
+    void outputComesBeforeAnUncaughtException() throws Exception {
+        // Nesting this deep overflows the parser when the module loads.
+        StringBuilder nested = new StringBuilder("var x = ");
+        for (int i = 0; i < 50000; i++) nested.append('(');
+        nested.append('1');
+        for (int i = 0; i < 50000; i++) nested.append(')');
+        nested.append(";\n");
+        Path module = Files.createTempFile("deep", ".lox");
+        try {
+            Files.write(module, nested.toString().getBytes(StandardCharsets.UTF_8));
+            Process process = LoxRunner.start(
+                    "print \"before\";\nimport \"" + module + "\";\n");
+            String output = readAll(process.getInputStream());
+            process.waitFor();
+            assertTrue(output.startsWith("before\n"), output);
+            assertTrue(output.contains("StackOverflowError"), output);
+        } finally {
+            Files.delete(module);
+        }
+    }
+
+    private static String readAll(InputStream in) throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int read; (read = in.read(buffer)) != -1; ) {
+            out.write(buffer, 0, read);
+        }
+        return out.toString("UTF-8");
+    }
+}
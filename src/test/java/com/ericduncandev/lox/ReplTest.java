@@ -0,0 +1,29 @@
+package com.ericduncandev.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ReplTest {
+    private static final String INPUT =
+            "var zz = 42;\n" +
+            "zz\n" +
+            "fun g(a) { return a * 2; }\n" +
+            "g(5)\n";
+
+    @Test
+    void expressionsSeeGlobalsAndFunctions() throws Exception {
+        for (String engine : new String[] {"--engine=tree", "--engine=closure", "--engine=vm"}) {
+            LoxRunner.Result result = LoxRunner.repl(INPUT, engine);
+            assertEquals("> > = 42\n> > = 10\n> ", result.out, engine);
+            assertEquals("", result.err, engine);
+            assertEquals(0, result.exitCode, engine);
+        }
+    }
+
+    @Test
+    void undefinedVariableIsReported() throws Exception {
+        LoxRunner.Result result = LoxRunner.repl("undefinedName\n");
+        assertEquals("Undefined variable 'undefinedName'.\n[line 1]\n", result.err);
+    }
+}
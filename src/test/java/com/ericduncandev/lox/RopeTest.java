@@ -0,0 +1,81 @@
+package com.ericduncandev.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RopeTest {
+    private static String repeat(char c, int count) {
+        char[] chars = new char[count];
+        Arrays.fill(chars, c);
+        return new String(chars);
+    }
+
+    @Test
+    void shortResultsStayStrings() {
+        assertEquals(String.class, Rope.concat("ab", "cd").getClass());
+        CharSequence joined = Rope.concat(repeat('a', 40), repeat('b', 40));
+        assertEquals(Rope.class, joined.getClass());
+        assertEquals(80, joined.length());
+    }
+
+    @Test
+    void equalsStringsAndRopesWithTheSameCharacters() {
+        String expected = repeat('a', 100) + repeat('b', 100);
+        CharSequence rope = Rope.concat(repeat('a', 100), repeat('b', 100));
+        CharSequence other = Rope.concat(repeat('a', 50), Rope.concat(repeat('a', 50), repeat('b', 100)));
+        assertTrue(rope.equals(expected));
+        assertTrue(rope.equals(other));
+        assertEquals(expected.hashCode(), rope.hashCode());
+        assertFalse(rope.equals(expected + "c"));
+        assertFalse(rope.equals(null));
+    }
+
+    @Test
+    void longChainsOfAppendsFlattenWithoutDeepRecursion() {
+        CharSequence text = "";
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            String piece = (i % 7 == 0) ? repeat('x', 300) : String.valueOf(i % 10);
+            text = (i % 3 == 0) ? Rope.concat(piece, text) : Rope.concat(text, piece);
+            if (i % 3 == 0) expected.insert(0, piece); else expected.append(piece);
+        }
+        assertEquals(expected.length(), text.length());
+        assertEquals(expected.toString(), text.toString());
+        assertEquals(expected.charAt(12345), text.charAt(12345));
+    }
+
+    @Test
+    void arraysHoldRopesAsStrings() {
+        LoxArray array = new LoxArray(1);
+        array.store(0, Rope.concat(repeat('a', 600), repeat('b', 600)));
+        assertEquals(String.class, array.get(0).getClass());
+        assertEquals(repeat('a', 600) + repeat('b', 600), array.get(0));
+    }
+
+    @Test
+    void behavesLikeAStringFromLox() throws Exception {
+        String source =
+                "var s = \"\";\n" +
+                "for (var i = 0; i < 3000; i = i + 1) s = s + \"ab\";\n" +
+                "print len(s);\n" +
+                "var t = \"\";\n" +
+                "for (var i = 0; i < 1500; i = i + 1) t = \"abab\" + t;\n" +
+                "print s == t;\n" +
+                "print t == s;\n" +
+                "print s == t + \"x\";\n" +
+                "print s[4001] + s[5998];\n" +
+                "var short = s + \"!\";\n" +
+                "print len(short) + len(\"!\" + s);\n" +
+                "print [s] == [t];\n";
+        for (String engine : new String[] {"--engine=tree", "--engine=closure", "--engine=vm"}) {
+            LoxRunner.Result result = LoxRunner.run(source, engine);
+            assertEquals("6000\ntrue\ntrue\nfalse\nba\n12002\ntrue\n", result.out, engine);
+            assertEquals("", result.err, engine);
+        }
+    }
+}
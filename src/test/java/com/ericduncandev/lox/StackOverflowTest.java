@@ -0,0 +1,34 @@
+package com.ericduncandev.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StackOverflowTest {
+    private static final String RUNAWAY =
+            "fun recurse(n) { return recurse(n + 1); }\n" +
+            "print \"before\";\n" +
+            "recurse(0);\n";
+
+    private static final String DEEP =
+            "fun depth(n) { if (n == 0) return 0; return 1 + depth(n - 1); }\n" +
+            "print depth(400);\n";
+
+    @Test
+    void runawayRecursionIsARuntimeError() throws Exception {
+        for (String engine : new String[] {"--engine=tree", "--engine=closure", "--engine=vm"}) {
+            LoxRunner.Result result = LoxRunner.run(RUNAWAY, engine);
+            assertEquals("before\n", result.out, engine);
+            assertEquals("Stack overflow.\n[line 1]\n", result.err, engine);
+            assertEquals(70, result.exitCode, engine);
+        }
+    }
+
+    @Test
+    void moderateRecursionFits() throws Exception {
+        LoxRunner.Result result = LoxRunner.run(DEEP);
+        assertEquals("400\n", result.out);
+        assertTrue(result.err.isEmpty(), result.err);
+    }
+}
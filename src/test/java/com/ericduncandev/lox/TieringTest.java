@@ -0,0 +1,63 @@
+package com.ericduncandev.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TieringTest {
+    private static final String DEEP =
+            "fun depth(n) { if (n == 0) return 0; return 1 + depth(n - 1); }\n" +
+            "print depth(520);\n";
+
+    // Profiling must not take more Java stack per Lox call than plain
+    // walking does.
+    @Test
+    void profilingKeepsTheRecursionDepth() throws Exception {
+        for (String mode : new String[] {"--tiering", "--tiering=eager", "--profile"}) {
+            LoxRunner.Result result = LoxRunner.run(DEEP, mode);
+            assertEquals("520", result.out.split("\n")[0], mode);
+            assertEquals(0, result.exitCode, mode);
+        }
+    }
+
+    // The tier log without its compile times.
+    private static String events(LoxRunner.Result result) {
+        return result.err.replaceAll(" in [0-9.]+ ms\\.", ".");
+    }
+
+    @Test
+    void typeChangeDeoptimizesAndRecompiles() throws Exception {
+        LoxRunner.Result result = LoxRunner.run(
+                "fun add(a, b) { return a + b; }\n" +
+                "var total = 0;\n" +
+                "for (var i = 0; i < 1500; i = i + 1) total = add(total, 1);\n" +
+                "print total;\n" +
+                "print add(\"x\", \"y\");\n" +
+                "for (var i = 0; i < 1500; i = i + 1) total = add(total, 1);\n" +
+                "print total;\n",
+                "--tiering", "--tier-log");
+        assertEquals("1500\nxy\n3000\n", result.out);
+        assertEquals(
+                "[tier] fun add (line 1): compiled after 1000 calls and 0 back edges.\n" +
+                "[tier] fun add (line 1): deoptimized at line 1, '+' expected two numbers.\n" +
+                "[tier] fun add (line 1): compiled after 1000 calls and 0 back edges.\n",
+                events(result));
+    }
+
+    @Test
+    void functionThatKeepsDeoptimizingStaysWalked() throws Exception {
+        LoxRunner.Result result = LoxRunner.run(
+                "fun add(a, b) { return a + b; }\n" +
+                "var total = 0;\n" +
+                "for (var round = 0; round < 5; round = round + 1) {\n" +
+                "  for (var i = 0; i < 1100; i = i + 1) total = add(total, 1);\n" +
+                "  add(\"x\", \"y\");\n" +
+                "}\n" +
+                "print total;\n",
+                "--tiering", "--tier-log");
+        assertEquals("5500\n", result.out);
+        String events = events(result);
+        assertEquals(3, events.split("compiled after", -1).length - 1, events);
+        assertEquals(3, events.split("deoptimized", -1).length - 1, events);
+    }
+}
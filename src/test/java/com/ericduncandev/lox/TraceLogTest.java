@@ -0,0 +1,35 @@
+package com.ericduncandev.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TraceLogTest {
+    private static final String SOURCE =
+            "var a = [1, 2, 3];\n" +
+            "var s = \"hey\";\n" +
+            "fun f(x) { var y = x * 2; y = y + a[1]; return y + len(s[0]); }\n" +
+            "class C { init() { this.v = 1; } get() { return this.v; } }\n" +
+            "var c = C();\n" +
+            "print f(3);\n" +
+            "print c.get();\n" +
+            "{ var local = 5; local = local + 1; print local; }\n";
+
+    @Test
+    void enginesTraceTheSameEvents() throws Exception {
+        LoxRunner.Result tree = LoxRunner.run(SOURCE, "--engine=tree", "--trace");
+        LoxRunner.Result closure = LoxRunner.run(SOURCE, "--engine=closure", "--trace");
+        assertEquals("9\n1\n6\n", tree.out);
+        assertEquals(tree.err, closure.err);
+    }
+
+    @Test
+    void indexingIsTraced() throws Exception {
+        LoxRunner.Result result = LoxRunner.run(SOURCE, "--trace");
+        assertTrue(result.err.contains("Debug: Indexed [1, 2, 3][1] = 2 at line 3\n"), result.err);
+        assertTrue(result.err.contains("Debug: Indexed hey[0] = h at line 3\n"), result.err);
+        assertTrue(result.err.contains("Debug: Read local = 5 at line 8\n"), result.err);
+        assertTrue(result.err.contains("Debug: Wrote local = 6 at line 8\n"), result.err);
+    }
+}
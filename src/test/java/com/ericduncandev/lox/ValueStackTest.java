@@ -0,0 +1,45 @@
+package com.ericduncandev.lox;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ValueStackTest {
+    private static Interpreter run(String source) {
+        Interpreter interpreter = new Interpreter(false);
+        List<Token> tokens = new Scanner(source).scanTokens();
+        List<Stmt> statements = new Parser(tokens, false).parse();
+        new Resolver(interpreter.globals, false, false).resolve(statements);
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+
+    private static void assertCleared(Interpreter interpreter) {
+        assertEquals(0, interpreter.top);
+        for (int i = 0; i < interpreter.stack.length; i++) {
+            assertNull(interpreter.stack[i], "slot " + i);
+        }
+    }
+
+    @Test
+    void returningClearsTheFrame() {
+        assertCleared(run(
+                "class Big {}\n" +
+                "fun outer(a) { var b = Big(); return inner(a, b); }\n" +
+                "fun inner(x, y) { var z = [x, y]; return z; }\n" +
+                "outer(Big());\n" +
+                "{ var local = Big(); }\n"));
+    }
+
+    @Test
+    void runtimeErrorClearsTheUnwoundFrames() {
+        assertCleared(run(
+                "class Big {}\n" +
+                "fun fail(a) { var b = Big(); return b + 1; }\n" +
+                "fun outer() { var c = Big(); return fail(c); }\n" +
+                "outer();\n"));
+    }
+}
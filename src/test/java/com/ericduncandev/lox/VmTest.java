@@ -0,0 +1,94 @@
+package com.ericduncandev.lox;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class VmTest {
+    private static final String[] PROGRAMS = {
+            // Arithmetic, strings and control flow.
+            "var total = 0;\n" +
+            "for (var i = 0; i < 10; i = i + 1) {\n" +
+            "  if (i == 7) break;\n" +
+            "  total = total + (i > 3 ? i * 2 : i);\n" +
+            "}\n" +
+            "print total;\n" +
+            "print \"a\" + \"b\" + 1;\n" +
+            "print !nil and 3 or 4;\n" +
+            "print -(2 - 5) / 2;\n",
+
+            // Closures, including captured loop variables.
+            "fun makeCounter() {\n" +
+            "  var i = 0;\n" +
+            "  fun count() { i = i + 1; return i; }\n" +
+            "  return count;\n" +
+            "}\n" +
+            "var c = makeCounter();\n" +
+            "c();\n" +
+            "print c();\n" +
+            "var fs = [];\n" +
+            "for (var k = 0; k < 3; k = k + 1) {\n" +
+            "  var kk = k;\n" +
+            "  fun g() { return kk; }\n" +
+            "  print g();\n" +
+            "}\n",
+
+            // Classes, getters and class methods.
+            "class Square {\n" +
+            "  init(side) { this.side = side; }\n" +
+            "  area { return this.side * this.side; }\n" +
+            "  describe() { return \"square with area \" + this.area; }\n" +
+            "  class unit() { return Square(1); }\n" +
+            "}\n" +
+            "print Square(3).describe();\n" +
+            "print Square.unit().area;\n" +
+            "var s = Square(2);\n" +
+            "s.side = 5;\n" +
+            "print s.area;\n" +
+            "print s;\n",
+
+            // Arrays and string indexing.
+            "var a = [1, \"two\", [3]];\n" +
+            "print a;\n" +
+            "print len(a) + len(\"four\");\n" +
+            "print a[2][0] + 1;\n" +
+            "print \"hello\"[1];\n",
+
+            // A runtime error stops the program after earlier output.
+            "print \"before\";\n" +
+            "print 1 + nil;\n" +
+            "print \"after\";\n",
+
+            "fun f() { return undefinedName; }\n" +
+            "print f();\n",
+    };
+
+    @Test
+    void vmMatchesTheTreeWalker() throws Exception {
+        for (String program : PROGRAMS) {
+            LoxRunner.Result tree = LoxRunner.run(program, "--engine=tree");
+            LoxRunner.Result vm = LoxRunner.run(program, "--engine=vm");
+            assertEquals(tree.out, vm.out, program);
+            assertEquals(tree.err, vm.err, program);
+            assertEquals(tree.exitCode, vm.exitCode, program);
+        }
+    }
+
+    @Test
+    void tooManyLocalsIsACompileError() throws Exception {
+        StringBuilder source = new StringBuilder("fun big() {\n");
+        for (int i = 0; i < 256; i++) {
+            source.append("  var v").append(i).append(" = ").append(i).append(";\n");
+            source.append("  print v").append(i).append(";\n");
+        }
+        source.append("}\nbig();\n");
+
+        LoxRunner.Result tree = LoxRunner.run(source.toString(), "--engine=tree");
+        assertEquals(0, tree.exitCode, tree.err);
+
+        LoxRunner.Result vm = LoxRunner.run(source.toString(), "--engine=vm");
+        assertTrue(vm.err.contains("Too many local variables in function."), vm.err);
+        assertEquals(65, vm.exitCode);
+    }
+}